@@ -0,0 +1,44 @@
+package de.unibremen.beduino.dcaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AES#encrypt(String, String)} as used for the update hash of a face.
+ *
+ * @author Norman Lipkow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AESBenchmark {
+
+    @Param({"64", "1024"})
+    public int length;
+
+    private String value;
+
+    @Setup
+    public void setUp() {
+        value = new String(new char[length]).replace('\0', 'a');
+    }
+
+    @Benchmark
+    public String encrypt() throws Exception {
+        return AES.encrypt(BenchmarkData.SERVER_KEY, value);
+    }
+}
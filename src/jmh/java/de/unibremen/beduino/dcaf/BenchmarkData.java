@@ -0,0 +1,53 @@
+package de.unibremen.beduino.dcaf;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures shared by the benchmarks.
+ *
+ * @author Norman Lipkow
+ */
+class BenchmarkData {
+    static final String SERVER_HOST = "[2001:DB8::dcaf:1234]";
+    static final String SERVER_KEY = "key";
+    static final String SAM_URL = "coaps://127.0.0.1:5684";
+    static final String CAM_IDENTIFIER = "/127.0.0.1:8002";
+
+    /**
+     * Points the working directory of the DAOs and the key store to an empty temporary directory, so every fork of a
+     * benchmark starts without the data of earlier runs. Has to be called before any of them is loaded.
+     */
+    static void useTemporaryDirectory() {
+        try {
+            System.setProperty("user.dir", Files.createTempDirectory("dcaf-jmh").toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return authorizations for the resources /resource0 to /resource{count - 1} of the benchmark server
+     */
+    static List<Authorization> sai(int count) {
+        List<Authorization> sai = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sai.add(new Authorization("coaps://" + SERVER_HOST + "/resource" + i, Method.GET.getBit()
+                    | Method.PUT.getBit()));
+        }
+        return sai;
+    }
+
+    static Face face(int authorizations, MacMethod macMethod) {
+        return new Face(sai(authorizations), System.currentTimeMillis() / 1000, 60, macMethod.getEncoding(), null);
+    }
+
+    static TicketGrantMessage ticket(int authorizations) throws Exception {
+        Face face = face(authorizations, MacMethod.HMAC_SHA_256);
+        return new TicketGrantMessage(face, new Verifier(Utils.computeMac(face.getMacMethod(),
+                SERVER_KEY.getBytes(), face)));
+    }
+}
@@ -0,0 +1,88 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FileDAO#saveTicket} and {@link FileDAO#getTicket} on a ticket file with a number of tickets. Every saved
+ * ticket is deleted again after the invocation, so the file keeps its size.
+ *
+ * @author Norman Lipkow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileDAOBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int tickets;
+
+    private FileDAO dao;
+    private String storedTicketId;
+
+    @State(Scope.Thread)
+    public static class NewTicket {
+        private TicketGrantMessage ticket;
+
+        @Setup(Level.Invocation)
+        public void create() throws Exception {
+            ticket = BenchmarkData.ticket(1);
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() {
+            FileDAO.getInstance().deleteTicket(ticket.getId());
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkData.useTemporaryDirectory();
+
+        // written at once, saving the tickets one by one would rewrite the file for each of them
+        ObjectMapper mapper = new ObjectMapper();
+        ArrayNode nodes = mapper.createArrayNode();
+        for (int i = 0; i < tickets; i++) {
+            TicketGrantMessage ticket = BenchmarkData.ticket(1);
+            nodes.add(mapper.readTree(mapper.writeValueAsBytes(ticket)));
+            if (i == tickets / 2) {
+                storedTicketId = ticket.getId();
+            }
+        }
+        Utils.transformDcafEncodingsToStringValues(nodes);
+        File file = new File(System.getProperty("user.dir"), "dao/tickets.json");
+        file.getParentFile().mkdirs();
+        mapper.writerWithDefaultPrettyPrinter().writeValue(file, nodes);
+
+        dao = FileDAO.getInstance();
+    }
+
+    @Benchmark
+    public boolean saveTicket(NewTicket newTicket) {
+        return dao.saveTicket(newTicket.ticket);
+    }
+
+    @Benchmark
+    public TicketGrantMessage getTicket() {
+        return dao.getTicket(storedTicketId);
+    }
+}
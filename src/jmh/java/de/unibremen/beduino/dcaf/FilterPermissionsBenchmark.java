@@ -0,0 +1,76 @@
+package de.unibremen.beduino.dcaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RemoteServerAuthorizationManager#filterPermissions} for a CAM with a number of rules, each granting access
+ * to another resource of the same server. With decisionCache=false every call decides on the rules again.
+ *
+ * @author Norman Lipkow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FilterPermissionsBenchmark {
+    private static final String DECISION_CACHE_MAX_SIZE_PROPERTY = "dcaf.decisionCache.maxSize";
+
+    @Param({"10", "1000", "10000"})
+    public int rules;
+
+    @Param({"1", "8"})
+    public int authorizations;
+
+    @Param({"true", "false"})
+    public boolean decisionCache;
+
+    private RemoteServerAuthorizationManager sam;
+    private CamInfo cam;
+    private TicketRequestMessage request;
+    private UpdateVerifier updateVerifier;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.useTemporaryDirectory();
+        if (!decisionCache) {
+            System.setProperty(DECISION_CACHE_MAX_SIZE_PROPERTY, "0");
+        }
+
+        DAO dao = InMemoryDAO.getInstance();
+        cam = new CamInfo(BenchmarkData.CAM_IDENTIFIER, "cam");
+        ServerInfo server = new ServerInfo(BenchmarkData.SERVER_HOST, BenchmarkData.SERVER_KEY, 0, new ArrayList<>());
+        dao.saveClientAuthorizationManager(cam);
+        dao.saveServerInformation(server);
+        for (int i = 0; i < rules; i++) {
+            AccessRule rule = new AccessRule("rule" + i, cam.getId());
+            rule.addRule(server, "/resource" + i, Method.GET.getBit(), new ArrayList<>());
+            dao.saveAccessRule(rule);
+        }
+
+        // the rules are indexed when SAM is created
+        sam = new RemoteServerAuthorizationManager(0);
+        request = new TicketRequestMessage(BenchmarkData.SAM_URL, BenchmarkData.sai(authorizations),
+                System.currentTimeMillis() / 1000, null, null);
+        updateVerifier = new UpdateVerifier(request);
+    }
+
+    @Benchmark
+    public TicketRequestMessage filterPermissions() {
+        return sam.filterPermissions(cam, request, updateVerifier);
+    }
+}
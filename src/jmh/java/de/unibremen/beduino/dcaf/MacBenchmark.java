@@ -0,0 +1,54 @@
+package de.unibremen.beduino.dcaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Utils#computeMac} for each {@link MacMethod}, on a face and on its already encoded form.
+ *
+ * @author Norman Lipkow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MacBenchmark {
+
+    @Param({"HMAC_SHA_256", "HMAC_SHA_384", "HMAC_SHA_512"})
+    public String macMethodName;
+
+    private MacMethod macMethod;
+    private final byte[] key = BenchmarkData.SERVER_KEY.getBytes();
+    private Face face;
+    private byte[] encodedFace;
+
+    @Setup
+    public void setUp() {
+        macMethod = MacMethod.valueOf(macMethodName);
+        face = BenchmarkData.face(1, macMethod);
+        encodedFace = DcafCborCodec.encodeFace(face, false);
+    }
+
+    @Benchmark
+    public byte[] face() throws Exception {
+        return Utils.computeMac(macMethod, key, face);
+    }
+
+    @Benchmark
+    public byte[] encodedFace() throws Exception {
+        return Utils.computeMac(macMethod, key, encodedFace);
+    }
+}
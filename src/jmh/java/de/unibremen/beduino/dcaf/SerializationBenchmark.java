@@ -0,0 +1,73 @@
+package de.unibremen.beduino.dcaf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Utils#serializeCbor(Object, boolean)} and {@link Utils#deserializeCbor(byte[], Class)} for the messages of
+ * the ticket issuance. Run with -jvmArgsAppend -Ddcaf.cbor.codec=jackson to measure Jackson instead of
+ * {@link DcafCborCodec}.
+ *
+ * @author Norman Lipkow
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"AccessRequest", "TicketRequestMessage", "TicketGrantMessage"})
+    public String message;
+
+    @Param({"1", "8"})
+    public int authorizations;
+
+    @Param({"false", "true"})
+    public boolean integerKeys;
+
+    private Object value;
+    private Class<?> valueType;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (message) {
+            case "AccessRequest":
+                value = new AccessRequest(BenchmarkData.SAM_URL, BenchmarkData.sai(authorizations),
+                        System.currentTimeMillis() / 1000, null, null);
+                break;
+            case "TicketRequestMessage":
+                value = new TicketRequestMessage(BenchmarkData.SAM_URL, BenchmarkData.sai(authorizations),
+                        System.currentTimeMillis() / 1000, null, null);
+                break;
+            default:
+                value = BenchmarkData.ticket(authorizations);
+        }
+        valueType = value.getClass();
+        encoded = Utils.serializeCbor(value, integerKeys).orElseThrow(IllegalStateException::new);
+    }
+
+    @Benchmark
+    public Optional<byte[]> serialize() {
+        return Utils.serializeCbor(value, integerKeys);
+    }
+
+    @Benchmark
+    public Optional<?> deserialize() {
+        return Utils.deserializeCbor(encoded, valueType);
+    }
+}
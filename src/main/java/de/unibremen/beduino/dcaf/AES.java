@@ -1,5 +1,10 @@
 package de.unibremen.beduino.dcaf;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -10,6 +15,9 @@ import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.codec.CharEncoding.UTF_8;
 
@@ -21,24 +29,107 @@ import static org.apache.commons.codec.CharEncoding.UTF_8;
  * Verschlüsselte Ausgabe als Base64 (davon 0.-24. Byte IV)
  *
  * Bei Illegal KeySize Error siehe: https://stackoverflow.com/a/6481658
+ *
+ * IVs kommen aus einem gemeinsamen, nicht blockierenden SecureRandom, der im Hintergrund aus der starken Quelle
+ * nachgesät wird. Die abgeleiteten Schlüssel werden pro Server zwischengespeichert, nicht pro Passphrase, damit keine
+ * alten Passphrasen im Speicher bleiben. Ein Schlüssel wird neu abgeleitet, wenn sich die Passphrase des Servers
+ * geändert hat; invalidate entfernt den Schlüssel eines gelöschten Servers.
  */
 
 public class AES {
-    private static SecretKeySpec getKeySpec(String passphrase) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    private static Logger logger = LoggerFactory.getLogger(AES.class);
+    private static final int RESEED_INTERVAL = 10; // in minutes
+    private static final int SEED_LENGTH = 32;
+    private static final int MAX_CACHED_KEYS = 1024;
+
+    private static final SecureRandom RANDOM = createRandom();
+    private static final Cache<String, CachedKey> KEY_SPECS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_KEYS)
+            .build();
+
+    static {
+        ScheduledExecutorService reseedExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AES Reseed");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reseedExecutor.scheduleWithFixedDelay(AES::reseed, 0, RESEED_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    private static SecureRandom createRandom() {
+        try {
+            return SecureRandom.getInstance("NativePRNGNonBlocking");
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    // Runs on its own thread, so a blocking strong source never stalls a caller of encrypt
+    private static void reseed() {
+        try {
+            RANDOM.setSeed(SecureRandom.getInstanceStrong().generateSeed(SEED_LENGTH));
+        } catch (NoSuchAlgorithmException e) {
+            logger.warn("No strong SecureRandom available for reseeding", e);
+        }
+    }
+
+    private static SecretKeySpec deriveKeySpec(String passphrase)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
         MessageDigest digest = MessageDigest.getInstance("SHA-256");
 
         return new SecretKeySpec(digest.digest(passphrase.getBytes(UTF_8)), "AES");
     }
 
+    // A key which was derived for a server from a passphrase which may have changed since
+    private static class CachedKey {
+        private final String passphrase;
+        private final SecretKeySpec keySpec;
+
+        private CachedKey(String passphrase, SecretKeySpec keySpec) {
+            this.passphrase = passphrase;
+            this.keySpec = keySpec;
+        }
+    }
+
+    private static SecretKeySpec getKeySpec(String host, String passphrase)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        CachedKey cachedKey = KEY_SPECS.getIfPresent(host);
+        if (cachedKey == null || !cachedKey.passphrase.equals(passphrase)) {
+            cachedKey = new CachedKey(passphrase, deriveKeySpec(passphrase));
+            KEY_SPECS.put(host, cachedKey);
+        }
+        return cachedKey.keySpec;
+    }
+
+    /**
+     * Removes the cached key of a server, so the passphrase of a deleted server does not stay in memory.
+     */
+    static void invalidate(String host) {
+        KEY_SPECS.invalidate(host);
+    }
+
     private static Cipher getCipher() throws NoSuchPaddingException, NoSuchAlgorithmException {
         return Cipher.getInstance("AES/CBC/PKCS5PADDING");
     }
 
     static String encrypt(String passphrase, String value) throws GeneralSecurityException, UnsupportedEncodingException {
+        return encrypt(deriveKeySpec(passphrase), value);
+    }
+
+    /**
+     * Encrypts with the passphrase of a server. The derived key is cached for the server while its passphrase stays the
+     * same.
+     */
+    static String encrypt(String host, String passphrase, String value)
+            throws GeneralSecurityException, UnsupportedEncodingException {
+        return encrypt(getKeySpec(host, passphrase), value);
+    }
+
+    private static String encrypt(SecretKeySpec keySpec, String value) throws GeneralSecurityException {
         byte[] initVector = new byte[16];
-        SecureRandom.getInstanceStrong().nextBytes(initVector);
+        RANDOM.nextBytes(initVector);
         Cipher cipher = getCipher();
-        cipher.init(Cipher.ENCRYPT_MODE, getKeySpec(passphrase), new IvParameterSpec(initVector));
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec, new IvParameterSpec(initVector));
         byte[] encrypted = cipher.doFinal(value.getBytes());
 
         return DatatypeConverter.printBase64Binary(initVector) + DatatypeConverter.printBase64Binary(encrypted);
@@ -47,7 +138,7 @@ public class AES {
     static String decrypt(String passphrase, String encrypted) throws GeneralSecurityException, UnsupportedEncodingException {
         byte[] initVector = DatatypeConverter.parseBase64Binary(encrypted.substring(0, 24));
         Cipher cipher = getCipher();
-        cipher.init(Cipher.DECRYPT_MODE, getKeySpec(passphrase), new IvParameterSpec(initVector));
+        cipher.init(Cipher.DECRYPT_MODE, deriveKeySpec(passphrase), new IvParameterSpec(initVector));
         byte[] original = cipher.doFinal(DatatypeConverter.parseBase64Binary(encrypted.substring(24)));
 
         return new String(original);
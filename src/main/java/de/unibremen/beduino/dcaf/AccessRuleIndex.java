@@ -0,0 +1,150 @@
+package de.unibremen.beduino.dcaf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Access rules compiled into nested maps from CAM identifier over server host to resource path. The grants for a
+ * requested authorization are found with three hash lookups instead of iterating over all rules. Changes are applied
+ * per rule by swapping in new, immutable grant lists, lookups do not block.
+ *
+ * @author Norman Lipkow
+ */
+class AccessRuleIndex {
+    private static Logger logger = LoggerFactory.getLogger(AccessRuleIndex.class);
+
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, List<Grant>>>> grants =
+            new ConcurrentHashMap<>();
+    private final Map<String, List<Grant>> grantsByRule = new HashMap<>();
+
+    /**
+     * The permissions one {@link ServerAccessRule} grants on a single resource.
+     */
+    static class Grant {
+        private final String camIdentifier;
+        private final String serverHost;
+        private final String resourcePath;
+        private final long expirationTime;
+        private final int methods;
+        private final List<UpdateAttribute> updateAttributes;
+
+        private Grant(AccessRule rule, ServerAccessRule serverAccessRule) {
+            this.camIdentifier = rule.getCamIdentifier();
+            this.serverHost = serverAccessRule.getServerHost();
+            this.resourcePath = serverAccessRule.getResource();
+            this.expirationTime = rule.getExpirationTime();
+            this.methods = serverAccessRule.getMethods();
+            this.updateAttributes = serverAccessRule.getUpdateAttributes() != null ?
+                    new ArrayList<>(serverAccessRule.getUpdateAttributes()) : Collections.emptyList();
+        }
+
+        long getExpirationTime() {
+            return expirationTime;
+        }
+
+        int getMethods() {
+            return methods;
+        }
+
+        List<UpdateAttribute> getUpdateAttributes() {
+            return updateAttributes;
+        }
+    }
+
+    AccessRuleIndex(Collection<AccessRule> rules) {
+        for (AccessRule rule : rules) {
+            put(rule);
+        }
+    }
+
+    /**
+     * Adds the rule to the index. A rule with the same id which was indexed before is replaced.
+     */
+    synchronized void put(AccessRule rule) {
+        List<Grant> ruleGrants = new ArrayList<>();
+        for (ServerAccessRule serverAccessRule : rule.getServerAccessRules()) {
+            if (serverAccessRule.getServerInfo() == null || serverAccessRule.getResource() == null) {
+                logger.warn("Access rule " + rule.getId() + " contains a server rule without server or resource");
+                continue;
+            }
+            ruleGrants.add(new Grant(rule, serverAccessRule));
+        }
+        replace(grantsByRule.put(rule.getId(), ruleGrants), ruleGrants);
+    }
+
+    synchronized void remove(String ruleId) {
+        replace(grantsByRule.remove(ruleId), Collections.emptyList());
+    }
+
+    /**
+     * Replaces the old grants of a rule with its new grants. Every affected resource gets a new grant list which is
+     * swapped in at once, so a concurrent lookup sees either the old or the new grants of the rule, never neither.
+     */
+    private void replace(List<Grant> oldGrants, List<Grant> newGrants) {
+        List<Grant> removed = oldGrants != null ? oldGrants : Collections.emptyList();
+        Set<List<String>> resources = new LinkedHashSet<>();
+        for (Grant grant : removed) {
+            resources.add(Arrays.asList(grant.camIdentifier, grant.serverHost, grant.resourcePath));
+        }
+        for (Grant grant : newGrants) {
+            resources.add(Arrays.asList(grant.camIdentifier, grant.serverHost, grant.resourcePath));
+        }
+
+        for (List<String> resource : resources) {
+            String camIdentifier = resource.get(0);
+            String serverHost = resource.get(1);
+            String resourcePath = resource.get(2);
+            ConcurrentMap<String, ConcurrentMap<String, List<Grant>>> hosts =
+                    grants.computeIfAbsent(camIdentifier, cam -> new ConcurrentHashMap<>());
+            ConcurrentMap<String, List<Grant>> paths =
+                    hosts.computeIfAbsent(serverHost, host -> new ConcurrentHashMap<>());
+
+            List<Grant> pathGrants = new ArrayList<>(paths.getOrDefault(resourcePath, Collections.emptyList()));
+            pathGrants.removeAll(removed);
+            for (Grant grant : newGrants) {
+                if (grant.camIdentifier.equals(camIdentifier) && grant.serverHost.equals(serverHost) &&
+                        grant.resourcePath.equals(resourcePath)) {
+                    pathGrants.add(grant);
+                }
+            }
+
+            if (!pathGrants.isEmpty()) {
+                paths.put(resourcePath, Collections.unmodifiableList(pathGrants));
+            } else {
+                paths.remove(resourcePath);
+                if (paths.isEmpty()) {
+                    hosts.remove(serverHost);
+                    if (hosts.isEmpty()) {
+                        grants.remove(camIdentifier);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the grants of all rules for the given CAM on the given resource, regardless of their expiration
+     */
+    List<Grant> getGrants(String camIdentifier, String serverHost, String resourcePath) {
+        if (camIdentifier == null || serverHost == null || resourcePath == null) {
+            return Collections.emptyList();
+        }
+
+        Map<String, ConcurrentMap<String, List<Grant>>> hosts = grants.get(camIdentifier);
+        Map<String, List<Grant>> paths = hosts != null ? hosts.get(serverHost) : null;
+        List<Grant> pathGrants = paths != null ? paths.get(resourcePath) : null;
+        return pathGrants != null ? pathGrants : Collections.emptyList();
+    }
+}
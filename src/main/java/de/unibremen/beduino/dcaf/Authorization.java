@@ -30,7 +30,28 @@ class Authorization {
 		}
 	}
 
+	private Authorization() {
+	}
+
+	/**
+	 * Creates an authorization without the intermediate array of the {@link JsonCreator} constructor, for decoders
+	 * which read the URI and methods directly.
+	 *
+	 * @throws URISyntaxException if the URI is malformed
+	 */
+	static Authorization of(String uri, int methods) throws URISyntaxException {
+		Authorization authorization = new Authorization();
+		authorization.initializeURIAttributes(uri);
+		authorization.methods = methods;
+		return authorization;
+	}
+
 	Authorization(String uri, int methods) {
+		this.methods = methods;
+		if (splitURI(uri)) {
+			return;
+		}
+
 		URI url = null;
 		try {
 			url = new URI(uri);
@@ -46,6 +67,12 @@ class Authorization {
 			this.host = "";
 			this.resourcePath = "";
 		}
+	}
+
+	Authorization(Authorization authorization, int methods) {
+		this.uri = authorization.uri;
+		this.resourcePath = authorization.resourcePath;
+		this.host = authorization.host;
 		this.methods = methods;
 	}
 
@@ -75,10 +102,186 @@ class Authorization {
 	}
 
 	private void initializeURIAttributes(Object[] array) throws URISyntaxException {
-		URI url =  new URI((String) array[0]);
+		initializeURIAttributes((String) array[0]);
+		this.methods = ((Integer) array[1]).byteValue();
+	}
+
+	private void initializeURIAttributes(String uri) throws URISyntaxException {
+		if (splitURI(uri)) {
+			return;
+		}
+
+		URI url =  new URI(uri);
 		this.resourcePath = url.getPath();
 		this.host = url.getHost();
 		this.uri = url.toString();
-		this.methods = ((Integer) array[1]).byteValue();
+	}
+
+	/**
+	 * Splits URIs of the common form scheme://host[:port][/path] without creating a {@link URI}. Hosts are
+	 * accepted as names, IPv4 or plain IPv6 addresses and paths without escapes; everything else is left to
+	 * {@link URI}, so the results are the same.
+	 *
+	 * @return true if the URI attributes were set
+	 */
+	private boolean splitURI(String uri) {
+		int schemeEnd = uri.indexOf("://");
+		if (schemeEnd <= 0 || !isScheme(uri, schemeEnd)) {
+			return false;
+		}
+
+		int authorityStart = schemeEnd + 3;
+		int authorityEnd = uri.indexOf('/', authorityStart);
+		if (authorityEnd < 0) {
+			authorityEnd = uri.length();
+		}
+
+		int hostEnd;
+		if (authorityStart < authorityEnd && uri.charAt(authorityStart) == '[') {
+			hostEnd = uri.indexOf(']', authorityStart) + 1;
+			if (hostEnd <= 0 || hostEnd > authorityEnd || !isIPv6Address(uri, authorityStart + 1, hostEnd - 1)) {
+				return false;
+			}
+		} else {
+			hostEnd = uri.lastIndexOf(':', authorityEnd - 1);
+			if (hostEnd < authorityStart) {
+				hostEnd = authorityEnd;
+			}
+			if (!isHostName(uri, authorityStart, hostEnd) && !isIPv4Address(uri, authorityStart, hostEnd)) {
+				return false;
+			}
+		}
+		if (hostEnd < authorityEnd && (uri.charAt(hostEnd) != ':' || !isDigits(uri, hostEnd + 1, authorityEnd))) {
+			return false;
+		}
+		if (!isPath(uri, authorityEnd)) {
+			return false;
+		}
+
+		this.uri = uri;
+		this.host = uri.substring(authorityStart, hostEnd);
+		this.resourcePath = uri.substring(authorityEnd);
+		return true;
+	}
+
+	private static boolean isScheme(String uri, int end) {
+		if (!isAlpha(uri.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < end; i++) {
+			char c = uri.charAt(i);
+			if (!isAlphaNum(c) && c != '+' && c != '-' && c != '.') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isHostName(String uri, int start, int end) {
+		int labelStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || uri.charAt(i) == '.') {
+				if (i == labelStart || uri.charAt(labelStart) == '-' || uri.charAt(i - 1) == '-') {
+					return false;
+				}
+				if (i == end) {
+					// the rightmost label has to start with a letter
+					return isAlpha(uri.charAt(labelStart));
+				}
+				labelStart = i + 1;
+			} else if (!isAlphaNum(uri.charAt(i)) && uri.charAt(i) != '-') {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isIPv4Address(String uri, int start, int end) {
+		int octets = 0;
+		int octetStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || uri.charAt(i) == '.') {
+				if (i == octetStart || i - octetStart > 3 || Integer.parseInt(uri.substring(octetStart, i)) > 255) {
+					return false;
+				}
+				octets++;
+				octetStart = i + 1;
+			} else if (!isDigit(uri.charAt(i))) {
+				return false;
+			}
+		}
+		return octets == 4;
+	}
+
+	private static boolean isIPv6Address(String uri, int start, int end) {
+		int groups = 0;
+		boolean compressed = false;
+		int i = start;
+		if (uri.startsWith("::", i)) {
+			compressed = true;
+			i += 2;
+		}
+		while (i < end) {
+			int groupStart = i;
+			while (i < end && isHexDigit(uri.charAt(i))) {
+				i++;
+			}
+			if (i == groupStart || i - groupStart > 4) {
+				return false;
+			}
+			groups++;
+			if (i == end) {
+				break;
+			}
+			if (uri.charAt(i) != ':') {
+				return false;
+			}
+			i++;
+			if (i < end && uri.charAt(i) == ':') {
+				if (compressed) {
+					return false;
+				}
+				compressed = true;
+				i++;
+			} else if (i == end) {
+				return false;
+			}
+		}
+		return compressed ? groups < 8 : groups == 8;
+	}
+
+	private static boolean isPath(String uri, int start) {
+		for (int i = start; i < uri.length(); i++) {
+			char c = uri.charAt(i);
+			if (!isAlphaNum(c) && "/-._~!$&'()*+,;=:@".indexOf(c) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigits(String uri, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!isDigit(uri.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAlpha(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAlphaNum(char c) {
+		return isAlpha(c) || isDigit(c);
+	}
+
+	private static boolean isHexDigit(char c) {
+		return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
 	}
 }
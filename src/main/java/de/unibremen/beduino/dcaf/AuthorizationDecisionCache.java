@@ -0,0 +1,179 @@
+package de.unibremen.beduino.dcaf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the authorizations SAM grants for a requested set of authorizations. Entries are keyed by the CAM, the
+ * normalized requested authorizations and the update attributes of the request. They are dropped when a rule or
+ * CAM they were computed for changes, or a server they refer to changes, and otherwise expire after a fixed time.
+ * A decision which depends on the current time, e.g. on the expiration time of a rule, is not used after the time
+ * at which it could change.
+ *
+ * @author Norman Lipkow
+ */
+class AuthorizationDecisionCache {
+    private static final String MAX_SIZE_PROPERTY = "dcaf.decisionCache.maxSize";
+    private static final String EXPIRY_PROPERTY = "dcaf.decisionCache.expiry";
+    private static final long DEFAULT_MAX_SIZE = 10000;
+    private static final long DEFAULT_EXPIRY = 60; // in seconds
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Cache<Key, Decision> cache;
+    // Incremented on every invalidation, so decisions computed concurrently with a change are not cached
+    private final AtomicLong generation = new AtomicLong();
+    // Guards incrementing the generation together with dropping the entries, and checking it together with adding one
+    private final Object invalidationLock = new Object();
+
+    /**
+     * The authorizations granted for a request and the time until which they may be used.
+     */
+    static class Decision {
+        private final List<Authorization> authorizations;
+        private final long validUntil;
+
+        /**
+         * @param authorizations the granted authorizations
+         * @param validUntil     the time in milliseconds since the epoch from which on the decision may differ,
+         *                       {@link Long#MAX_VALUE} if it does not depend on the time
+         */
+        Decision(List<Authorization> authorizations, long validUntil) {
+            this.authorizations = authorizations;
+            this.validUntil = validUntil;
+        }
+    }
+
+    private static class Key {
+        private final String camIdentifier;
+        private final Map<String, Integer> sai;
+        private final String updateAttributes;
+        private final Set<String> hosts;
+
+        private Key(String camIdentifier, Map<String, Integer> sai, String updateAttributes, Set<String> hosts) {
+            this.camIdentifier = camIdentifier;
+            this.sai = sai;
+            this.updateAttributes = updateAttributes;
+            this.hosts = hosts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || this.getClass() != o.getClass()) {
+                return false;
+            }
+            Key oKey = (Key) o;
+            return camIdentifier.equals(oKey.camIdentifier) && sai.equals(oKey.sai) &&
+                    Objects.equals(updateAttributes, oKey.updateAttributes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(camIdentifier, sai, updateAttributes);
+        }
+    }
+
+    AuthorizationDecisionCache() {
+        this(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE), Long.getLong(EXPIRY_PROPERTY, DEFAULT_EXPIRY));
+    }
+
+    /**
+     * @param maxSize the maximum number of cached decisions
+     * @param expiry  the time in seconds after which a decision is computed again
+     */
+    AuthorizationDecisionCache(long maxSize, long expiry) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expiry, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "dcaf.decision",
+                "instance", String.valueOf(instances.incrementAndGet()));
+    }
+
+    /**
+     * Returns the granted authorizations for a request, computing them on a miss. The requested authorizations are
+     * merged by URI and sorted before they are passed to {@code decide}, so equal requests share one entry.
+     *
+     * @param camIdentifier    the CAM which requested the authorizations
+     * @param sai              the requested authorizations
+     * @param updateAttributes the update attributes of the request, if any
+     * @param decide           decides on the normalized requested authorizations
+     * @return the granted authorizations, which the caller may modify
+     */
+    List<Authorization> getAuthorizations(String camIdentifier, List<Authorization> sai, String updateAttributes,
+                                          Function<List<Authorization>, Decision> decide) {
+        Map<String, Integer> normalizedSai = new TreeMap<>();
+        Map<String, Authorization> authorizationsByUri = new HashMap<>();
+        Set<String> hosts = new HashSet<>();
+        for (Authorization authorization : sai) {
+            normalizedSai.merge(authorization.getUri(), authorization.getMethods(), (a, b) -> a | b);
+            authorizationsByUri.putIfAbsent(authorization.getUri(), authorization);
+            hosts.add(authorization.getHostURL());
+        }
+        Key key = new Key(camIdentifier, Collections.unmodifiableMap(normalizedSai), updateAttributes, hosts);
+
+        Decision decision = cache.getIfPresent(key);
+        if (decision == null || decision.validUntil <= System.currentTimeMillis()) {
+            long currentGeneration = generation.get();
+            List<Authorization> normalizedAuthorizations = new ArrayList<>(normalizedSai.size());
+            for (Map.Entry<String, Integer> entry : normalizedSai.entrySet()) {
+                normalizedAuthorizations.add(
+                        new Authorization(authorizationsByUri.get(entry.getKey()), entry.getValue()));
+            }
+
+            Decision computed = decide.apply(normalizedAuthorizations);
+            decision = new Decision(copyOf(computed.authorizations), computed.validUntil);
+            synchronized (invalidationLock) {
+                if (generation.get() == currentGeneration) {
+                    cache.put(key, decision);
+                }
+            }
+        }
+
+        return copyOf(decision.authorizations);
+    }
+
+    /**
+     * Drops all decisions made for the given CAM.
+     */
+    void invalidateCam(String camIdentifier) {
+        synchronized (invalidationLock) {
+            generation.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.camIdentifier.equals(camIdentifier));
+        }
+    }
+
+    /**
+     * Drops all decisions which requested authorizations on the given server.
+     */
+    void invalidateServer(String host) {
+        synchronized (invalidationLock) {
+            generation.incrementAndGet();
+            cache.asMap().keySet().removeIf(key -> key.hosts.contains(host));
+        }
+    }
+
+    private static List<Authorization> copyOf(List<Authorization> authorizations) {
+        List<Authorization> copy = new ArrayList<>(authorizations.size());
+        for (Authorization authorization : authorizations) {
+            copy.add(new Authorization(authorization, authorization.getMethods()));
+        }
+        return copy;
+    }
+}
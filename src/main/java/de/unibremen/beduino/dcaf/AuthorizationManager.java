@@ -34,6 +34,7 @@ abstract class AuthorizationManager extends CoapServer {
     private final int port;
     protected DTLSConnector dtlsConnector;
     private DtlsConnectorConfig config;
+    private volatile boolean integerKeys = Boolean.getBoolean(Utils.INTEGER_KEYS_PROPERTY);
 
     AuthorizationManager() {
         this.port = NetworkConfig.getStandard().getInt(NetworkConfig.Keys.COAP_SECURE_PORT);
@@ -77,6 +78,22 @@ abstract class AuthorizationManager extends CoapServer {
         return port;
     }
 
+    /**
+     * Selects the compact encoding, in which the DCAF keys of the messages this manager sends are CBOR integers
+     * instead of text. Messages which answer a message in the compact encoding use it regardless.
+     */
+    public void setIntegerKeys(boolean integerKeys) {
+        this.integerKeys = integerKeys;
+    }
+
+    /**
+     * @param received the message which is answered, or null
+     * @return whether the DCAF keys of the answer are encoded as CBOR integers
+     */
+    boolean useIntegerKeys(byte[] received) {
+        return integerKeys || DcafCborCodec.hasIntegerKeys(received);
+    }
+
     private DTLSConnector getDtlsConnector(String identity, InetSocketAddress bindToAddress) {
         if (dtlsConnector == null) {
             DTLSConnector connector;
@@ -93,7 +110,7 @@ abstract class AuthorizationManager extends CoapServer {
                 trustedCertificates[0] = trustStore.getCertificate("root");
 
                 DtlsConnectorConfig.Builder dTLSConfig = new DtlsConnectorConfig.Builder();
-                JsonPskStore store = new JsonPskStore();
+                JsonPskStore store = JsonPskStore.getInstance();
                 config = dTLSConfig.setAddress(bindToAddress)
                         .setIdentity((PrivateKey)keyStore.getKey(identity, KEY_STORE_PASSWORD.toCharArray()),
                         keyStore.getCertificateChain(identity), true)
@@ -4,18 +4,37 @@ import org.apache.commons.codec.binary.Hex;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.core.network.config.NetworkConfig;
 import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.EndpointContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.security.Principal;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
+ * Forwards access requests of clients to the SAM. Requests are handled asynchronously: the client's exchange is
+ * accepted, the ticket request is sent to the SAM and the client is answered from the SAM's response, so no worker
+ * thread waits for the SAM. The SAM's ticket is checked for a well-formed structure and forwarded to the client as it
+ * was received. Identical ticket requests which arrive while one of them is outstanding share the SAM's
+ * response. Granted tickets are cached per client until they expire and are served without asking the SAM again,
+ * unless the SAM revokes them through the revoke resource.
+ *
  * @author Connor Lanigan
  * @author Sven Höper
  * @author Norman Lipkow
@@ -25,6 +44,22 @@ public class ClientAuthorizationManager extends AuthorizationManager {
     private static Logger logger = LoggerFactory.getLogger(ClientAuthorizationManager.class);
     private static final String CAM_IDENTITY = "cam";
     private static final int SAM_RESPONSE_TIMEOUT = 10000;
+    private static final String PASS_THROUGH_PROPERTY = "dcaf.cam.passThrough";
+    // Forward SAM's validated payload unchanged instead of deserializing and serializing it again
+    private static final boolean PASS_THROUGH =
+            Boolean.parseBoolean(System.getProperty(PASS_THROUGH_PROPERTY, "true"));
+    private static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "CAM SAM Timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Outstanding requests to SAM, keyed by the serialized ticket request message
+    private final ConcurrentMap<ByteBuffer, CompletableFuture<Response>> pendingTicketRequests =
+            new ConcurrentHashMap<>();
+    private final TicketCache ticketCache = new TicketCache();
+    private final Tracer tracer = Tracer.getInstance();
 
     /**
      * Initializes a Client Authorization Manager which listens on the requested port.
@@ -71,79 +106,227 @@ public class ClientAuthorizationManager extends AuthorizationManager {
 
             @Override
             public void handlePOST(CoapExchange exchange) {
+                Span span = tracer.startSpan("cam.authorize", TraceContext.fromOptions(exchange.getRequestOptions()));
                 byte[] requestPayload = exchange.getRequestPayload();
 
                 Optional<AccessRequest> request = Utils.deserializeCbor(requestPayload, AccessRequest.class);
                 if (!request.isPresent()) {
                     logger.error("Deserialization of CBOR failed. The access request probably is malformed");
                     exchange.respond(CoAP.ResponseCode.BAD_REQUEST);
+                    span.tag("code", CoAP.ResponseCode.BAD_REQUEST.toString()).end();
                     return;
                 }
 
-                Response response = processAccessRequest(request.get());
-                byte[] payload = null;
-
-                if(response.getCode() == CoAP.ResponseCode.CONTENT && response.getPayload() == null) {
-                    exchange.respond(CoAP.ResponseCode.CONTENT);
-                } else if (response.getCode() == CoAP.ResponseCode.CONTENT && response.getPayload() != null) {
-                    Optional<TicketGrantMessage> answer = Utils.deserializeCbor(response.getPayload(), TicketGrantMessage.class);
-                    boolean success = false;
-                    if (answer.isPresent()) {
-                        Optional<byte[]> possibleTicketGrantMessageCbor = Utils.serializeCbor(answer.get());
-                        if (possibleTicketGrantMessageCbor.isPresent()) {
-                            payload = possibleTicketGrantMessageCbor.get();
-                            success = true;
-                        }
+                AccessRequest accessRequest = request.get();
+                String clientIdentity = getClientIdentity(exchange);
+                boolean integerKeys = useIntegerKeys(requestPayload);
+                boolean cacheable = TicketCache.isCacheable(accessRequest);
+                if (cacheable) {
+                    TicketCache.CachedTicket ticket = ticketCache.get(clientIdentity, accessRequest, integerKeys);
+                    if (ticket != null) {
+                        DcafMetrics.CAM_CACHE_HITS.increment();
+                        exchange.setMaxAge(ticket.getMaxAge());
+                        exchange.respond(CoAP.ResponseCode.CONTENT, ticket.getPayload());
+                        span.tag("cache", "hit").tag("code", CoAP.ResponseCode.CONTENT.toString()).end();
+                        return;
                     }
+                    DcafMetrics.CAM_CACHE_MISSES.increment();
+                }
+                span.tag("cache", cacheable ? "miss" : "uncacheable");
 
-                    if (success) {
-                        logger.debug("respond: h'" + Hex.encodeHexString(payload) + "'");
-                        exchange.respond(CoAP.ResponseCode.CONTENT, payload);
-                    } else {
-                        logger.error("Something went wrong. The response from SAM was malformed. Probably an internal" +
-                                "server error.");
-                        exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
-                    }
-                } else {
-                    exchange.respond(response.getCode());
+                if (!isValidSamUri(accessRequest.getSam())) {
+                    logger.error("Cannot send a ticket request to SAM " + accessRequest.getSam());
+                    exchange.respond(CoAP.ResponseCode.BAD_REQUEST);
+                    span.tag("code", CoAP.ResponseCode.BAD_REQUEST.toString()).end();
+                    return;
                 }
+
+                exchange.accept();
+                processAccessRequest(accessRequest, integerKeys, span).whenComplete((response, e) -> {
+                    CoAP.ResponseCode code = CoAP.ResponseCode.BAD_GATEWAY;
+                    try {
+                        if (e != null) {
+                            logger.error("Ticket request to SAM " + accessRequest.getSam() + " failed", e);
+                            exchange.respond(code);
+                            return;
+                        }
+
+                        code = response.getCode();
+                        respond(exchange, response, ticket -> {
+                            if (cacheable) {
+                                Long maxAge = response.getOptions().hasMaxAge() ?
+                                        response.getOptions().getMaxAge() : null;
+                                ticketCache.put(clientIdentity, accessRequest, integerKeys, ticket, maxAge);
+                            }
+                        });
+                    } finally {
+                        span.tag("code", code.toString()).end();
+                    }
+                });
             }
         });
     }
 
-    private Response processAccessRequest(AccessRequest message) {
+    private String getClientIdentity(CoapExchange exchange) {
+        EndpointContext sourceContext = exchange.advanced().getRequest().getSourceContext();
+        Principal peerIdentity = sourceContext.getPeerIdentity();
+        return peerIdentity != null ? peerIdentity.getName() : sourceContext.getPeerAddress().toString();
+    }
+
+    /**
+     * @param ticketSent called with the ticket, if the client received one
+     */
+    private void respond(CoapExchange exchange, Response response, Consumer<TicketGrantView> ticketSent) {
+        if(response.getCode() == CoAP.ResponseCode.CONTENT && response.getPayload() == null) {
+            exchange.respond(CoAP.ResponseCode.CONTENT);
+        } else if (response.getCode() == CoAP.ResponseCode.CONTENT && response.getPayload() != null) {
+            Optional<TicketGrantView> answer = PASS_THROUGH ? TicketGrantView.parse(response.getPayload()) :
+                    reencode(response.getPayload());
+
+            if (answer.isPresent()) {
+                byte[] payload = answer.get().getPayload();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("respond: h'" + Hex.encodeHexString(payload) + "'");
+                }
+                exchange.respond(CoAP.ResponseCode.CONTENT, payload);
+                ticketSent.accept(answer.get());
+            } else {
+                logger.error("Something went wrong. The response from SAM was malformed. Probably an internal" +
+                        "server error.");
+                exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
+            }
+        } else {
+            exchange.respond(response.getCode());
+        }
+    }
+
+    /**
+     * Deserializes SAM's payload and serializes it again, used when pass-through is disabled.
+     */
+    private static Optional<TicketGrantView> reencode(byte[] samPayload) {
+        Optional<TicketGrantMessage> answer = Utils.deserializeCbor(samPayload, TicketGrantMessage.class);
+        if (answer.isPresent()) {
+            Optional<byte[]> possibleTicketGrantMessageCbor = Utils.serializeCbor(answer.get(),
+                    DcafCborCodec.hasIntegerKeys(samPayload));
+            if (possibleTicketGrantMessageCbor.isPresent()) {
+                return Optional.of(new TicketGrantView(answer.get(), possibleTicketGrantMessageCbor.get()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param span the span of the client's request, the request to SAM is traced as its child
+     */
+    private CompletableFuture<Response> processAccessRequest(AccessRequest message, boolean integerKeys, Span span) {
         TicketRequestMessage tRM = new TicketRequestMessage(message.getSam(), message.getSai(),
                 message.getTimestamp(), message.getUpdateAttributes(), message.getSignature());
-        Optional<byte[]> optionalSerializedTRM = Utils.serializeCbor(tRM);
+        Optional<byte[]> optionalSerializedTRM = Utils.serializeCbor(tRM, integerKeys);
 
         if (optionalSerializedTRM.isPresent()) {
             byte [] serializedTicketRequestMessage = optionalSerializedTRM.get();
-            return dTLSPSKRequest(message.getSam(), serializedTicketRequestMessage);
+            return requestTicketOnce(message.getSam(), serializedTicketRequestMessage, span);
         } else {
             logger.error("Error while serializing the Ticket Request Message, Access Request might be malformed");
-            return new Response(CoAP.ResponseCode.BAD_REQUEST);
+            return CompletableFuture.completedFuture(new Response(CoAP.ResponseCode.BAD_REQUEST));
+        }
+    }
+
+    private CompletableFuture<Response> requestTicketOnce(String uri, byte[] payload, Span span) {
+        ByteBuffer key = ByteBuffer.wrap(payload);
+        CompletableFuture<Response> samResponse = new CompletableFuture<>();
+        CompletableFuture<Response> pending = pendingTicketRequests.putIfAbsent(key, samResponse);
+        if (pending != null) {
+            logger.debug("Joining outstanding ticket request to " + uri);
+            span.tag("coalesced", true);
+            DcafMetrics.CAM_COALESCED.increment();
+            return pending;
+        }
+
+        CompletableFuture<Response> request;
+        try {
+            request = dTLSPSKRequest(uri, payload, span);
+        } catch (RuntimeException e) {
+            logger.error("Could not send ticket request to SAM " + uri, e);
+            pendingTicketRequests.remove(key, samResponse);
+            samResponse.complete(new Response(CoAP.ResponseCode.BAD_REQUEST));
+            return samResponse;
         }
+        request.whenComplete((response, e) -> {
+            // removed first, so requests arriving from now on are sent to SAM again
+            pendingTicketRequests.remove(key, samResponse);
+            if (e != null) {
+                samResponse.completeExceptionally(e);
+            } else {
+                samResponse.complete(response);
+            }
+        });
+        return samResponse;
     }
 
-    private Response dTLSPSKRequest(String uri, byte[] payload) {
+    /**
+     * @return true if a request can be sent to the given SAM URI, i.e. it is a valid URI whose host can be resolved
+     */
+    private static boolean isValidSamUri(String uri) {
+        if (uri == null) {
+            return false;
+        }
+        try {
+            Request.newPost().setURI(uri);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private CompletableFuture<Response> dTLSPSKRequest(String uri, byte[] payload, Span parent) {
         Request request = Request.newPost();
         request.setURI(uri);
         request.setPayload(payload);
         request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+        Span span = tracer.startSpan("cam.sam-request", parent.context());
+        TraceContext traceContext = span.context();
+        if (traceContext != null) {
+            traceContext.addTo(request.getOptions());
+        }
+
+        CompletableFuture<Response> samResponse = new CompletableFuture<>();
+        request.addMessageObserver(new MessageObserverAdapter() {
+            @Override
+            public void onResponse(Response response) {
+                samResponse.complete(response);
+            }
+
+            @Override
+            protected void failed() {
+                samResponse.complete(null);
+            }
+        });
+        ScheduledFuture<?> timeout = TIMEOUT_EXECUTOR.schedule(() -> {
+            if (samResponse.complete(null)) {
+                request.cancel();
+            }
+        }, SAM_RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        samResponse.whenComplete((response, e) -> {
+            timeout.cancel(false);
+            if (response != null) {
+                DcafMetrics.CAM_SAM_FORWARD.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } else {
+                DcafMetrics.CAM_SAM_TIMEOUTS.increment();
+            }
+            span.tag("code", response != null ? response.getCode().toString() : "timeout").end();
+        });
 
         request.send(getEndpoint(getDTLSPort()));
-        Response response = null;
-        try {
-            response = request.waitForResponse(SAM_RESPONSE_TIMEOUT);
-        } catch (InterruptedException e) {
-            logger.error(e.getMessage());
-        }
 
-        if (response == null) {
-            logger.error("Connection to SAM server timed out, no response");
-            return new Response(CoAP.ResponseCode.BAD_GATEWAY);
-        }
+        return samResponse.thenApply(response -> {
+            if (response == null) {
+                logger.error("Connection to SAM server timed out, no response");
+                return new Response(CoAP.ResponseCode.BAD_GATEWAY);
+            }
 
-        return response;
+            return response;
+        });
     }
 }
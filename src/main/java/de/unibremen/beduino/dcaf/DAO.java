@@ -1,6 +1,7 @@
 package de.unibremen.beduino.dcaf;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * @author Norman Lipkow
@@ -17,6 +18,37 @@ public interface DAO {
 
     boolean updateTicket(TicketGrantMessage ticket);
 
+    /**
+     * @param camIdentifier the identifier of the CAM the tickets were commissioned to
+     * @return all tickets which were commissioned to the given CAM
+     */
+    default List<TicketGrantMessage> getTicketsByCamIdentifier(String camIdentifier) {
+        return getTickets().stream()
+                .filter(ticket -> camIdentifier.equals(ticket.getCamIdentifier()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param host the host address of the server the tickets are valid for
+     * @return all tickets which were commissioned for the given server
+     */
+    default List<TicketGrantMessage> getTicketsByServerHost(String host) {
+        return getTickets().stream()
+                .filter(ticket -> host.equals(ticket.getServerHost()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param resourcePath the path of a resource
+     * @return all tickets which grant access to a resource with the given path
+     */
+    default List<TicketGrantMessage> getTicketsByResourcePath(String resourcePath) {
+        return getTickets().stream()
+                .filter(ticket -> ticket.getFace().getSai().stream()
+                        .anyMatch(authorization -> resourcePath.equals(authorization.getResourcePath())))
+                .collect(Collectors.toList());
+    }
+
     List<AccessRule> getAccessRules();
 
     AccessRule getAccessRule(String ruleId);
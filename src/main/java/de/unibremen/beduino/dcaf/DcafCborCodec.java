@@ -0,0 +1,738 @@
+package de.unibremen.beduino.dcaf;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CBOR encoder and decoder for {@link AccessRequest}, {@link TicketRequestMessage}, {@link Face} and
+ * {@link TicketGrantMessage}. Messages are encoded into a buffer which is reused per thread and decoded directly into
+ * the domain objects. The encoding is the same the {@link DcafJsonSerializer} classes produce with Jackson, except for
+ * faces: their verifier is computed over their encoding, so they are always written in canonical CBOR (RFC 7049,
+ * section 3.9), see {@link #encodeFace(Face, boolean)}. The DCAF keys are written as text or, in the compact encoding,
+ * as CBOR integers; the decoder reads both.
+ * <p>
+ * The decoder reads the encoding Jackson and this encoder produce. For input it does not read, e.g. unknown fields,
+ * floating point numbers or non-ASCII text, {@link #decode(byte[], Class)} returns null and the caller is expected to
+ * fall back to Jackson, which either reads the input or reports the error.
+ *
+ * @author Norman Lipkow
+ */
+class DcafCborCodec {
+    private static final int INITIAL_BUFFER_SIZE = 256;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+    // Longer texts are written in chunks by Jackson and left to it
+    private static final int MAX_TEXT_LENGTH = 3996;
+    // DCAF messages nest at most four levels deep, deeper input is left to Jackson instead of exhausting the stack
+    private static final int MAX_SKIP_DEPTH = 32;
+    private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+    private static final String ID = "id";
+    private static final String CAM = "cam";
+    private static final String SERVER = "server";
+
+    // CBOR major types and simple values
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int INDEFINITE = 31;
+    private static final int NULL = 0xf6;
+    private static final int BREAK = 0xff;
+
+    private DcafCborCodec() {
+
+    }
+
+    /**
+     * @param integerKeys whether the DCAF keys are encoded as CBOR integers instead of text
+     * @return the CBOR encoding of the message, or null if the message is not supported by this codec
+     */
+    static byte[] encode(Object message, boolean integerKeys) {
+        if (!(message instanceof AccessRequest || message instanceof TicketRequestMessage ||
+                message instanceof Face || message instanceof TicketGrantMessage)) {
+            return null;
+        }
+
+        return encode(message, null, integerKeys);
+    }
+
+    /**
+     * Encodes a face in canonical CBOR: with definite lengths, the shortest encoding of every integer and length, and
+     * the keys in canonical order, which is the same for text and integer keys. Equal faces therefore always have the
+     * same encoding, on which the verifier is computed.
+     *
+     * @param integerKeys whether the DCAF keys are encoded as CBOR integers instead of text
+     * @return the canonical encoding of the face, or null if it could not be encoded
+     */
+    static byte[] encodeFace(Face face, boolean integerKeys) {
+        return encode(face, null, integerKeys);
+    }
+
+    /**
+     * Encodes a ticket grant message with a face which was already encoded by {@link #encodeFace(Face, boolean)}, so
+     * the bytes the verifier was computed on are sent as they are.
+     *
+     * @param encodedFace the canonical encoding of the ticket's face
+     * @param integerKeys whether the DCAF keys are encoded as CBOR integers instead of text
+     * @return the encoded message, or null if it could not be encoded
+     */
+    static byte[] encodeTicketGrantMessage(TicketGrantMessage ticket, byte[] encodedFace, boolean integerKeys) {
+        return encode(ticket, encodedFace, integerKeys);
+    }
+
+    private static byte[] encode(Object message, byte[] encodedFace, boolean integerKeys) {
+        Encoder encoder = ENCODERS.get();
+        encoder.integerKeys = integerKeys;
+        try {
+            if (message instanceof AccessRequest) {
+                encoder.writeAccessRequest((AccessRequest) message);
+            } else if (message instanceof TicketRequestMessage) {
+                encoder.writeTicketRequestMessage((TicketRequestMessage) message);
+            } else if (message instanceof Face) {
+                encoder.writeFace((Face) message);
+            } else {
+                encoder.writeTicketGrantMessage((TicketGrantMessage) message, encodedFace);
+            }
+            return encoder.toByteArray();
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            encoder.reset();
+        }
+    }
+
+    /**
+     * @return the decoded message, or null if the type or the input is not supported by this codec
+     */
+    static <T> T decode(byte[] payload, Class<T> valueType) {
+        Decoder decoder = new Decoder(payload);
+        try {
+            Object message;
+            if (valueType == AccessRequest.class) {
+                message = decoder.readRequest(AccessRequest::new);
+            } else if (valueType == TicketRequestMessage.class) {
+                message = decoder.readRequest(TicketRequestMessage::new);
+            } else if (valueType == Face.class) {
+                message = decoder.readFace();
+            } else if (valueType == TicketGrantMessage.class) {
+                message = decoder.readTicketGrantMessage();
+            } else {
+                return null;
+            }
+            return decoder.isAtEnd() ? valueType.cast(message) : null;
+        } catch (UnsupportedInputException | URISyntaxException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the payload is a map with CBOR integer keys, as in the compact encoding
+     */
+    static boolean hasIntegerKeys(byte[] payload) {
+        if (payload == null || payload.length == 0) {
+            return false;
+        }
+
+        Decoder decoder = new Decoder(payload);
+        try {
+            int entries = decoder.readContainerStart(MAJOR_MAP);
+            for (int i = 0; decoder.hasNext(entries, i); i++) {
+                if (decoder.peekMajor() == MAJOR_UNSIGNED) {
+                    return true;
+                }
+                decoder.skip(0);
+                decoder.skip(0);
+            }
+        } catch (UnsupportedInputException | RuntimeException e) {
+            return false;
+        }
+        return false;
+    }
+
+    private static class Encoder {
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        private int length;
+        private boolean integerKeys;
+        // Set while a face is written, which uses the shortest encodings instead of the ones Jackson uses
+        private boolean canonical;
+
+        private void writeAccessRequest(AccessRequest request) {
+            writeMapStart();
+            writeNullableText(DcafEncodingType.SAM, request.getSam());
+            writeSai(request.getSai());
+            if (request.getTimestamp() != 0) {
+                writeNumber(DcafEncodingType.TS, request.getTimestamp());
+            }
+            writeUpdateAttributes(request.getUpdateAttributes(), request.getSignature());
+            writeBreak();
+        }
+
+        private void writeTicketRequestMessage(TicketRequestMessage request) {
+            writeMapStart();
+            writeNullableText(DcafEncodingType.SAM, request.getSamUrl());
+            writeSai(request.getSai());
+            if (request.getTimestamp() > 0) {
+                writeNumber(DcafEncodingType.TS, request.getTimestamp());
+            }
+            writeUpdateAttributes(request.getUpdateAttributes(), request.getSignature());
+            writeBreak();
+        }
+
+        private void writeUpdateAttributes(String updateAttributes, String signature) {
+            if (updateAttributes != null) {
+                writeNullableText(DcafEncodingType.UA, updateAttributes);
+            }
+            if (signature != null) {
+                writeNullableText(DcafEncodingType.S, signature);
+            }
+        }
+
+        private void writeFace(Face face) {
+            canonical = true;
+            try {
+                writeHeader(MAJOR_MAP, face.getUpdateHashEncrypted() != null ? 5 : 4);
+                writeKey(DcafEncodingType.SAI);
+                writeHeader(MAJOR_ARRAY, face.getSai().size());
+                for (Authorization authorization : face.getSai()) {
+                    writeHeader(MAJOR_ARRAY, 2);
+                    writeText(authorization.getUri());
+                    writeLong(authorization.getMethods());
+                }
+                writeNumber(DcafEncodingType.TS, face.getTimestamp());
+                writeNumber(DcafEncodingType.L, face.getLifetime());
+                writeNullableText(DcafEncodingType.G, face.getMacMethod().getEncoding());
+                if (face.getUpdateHashEncrypted() != null) {
+                    writeNullableText(DcafEncodingType.UH, face.getUpdateHashEncrypted());
+                }
+            } finally {
+                canonical = false;
+            }
+        }
+
+        private void writeTicketGrantMessage(TicketGrantMessage ticket, byte[] encodedFace) {
+            writeMapStart();
+            writeNullableText(ID, ticket.getId());
+            writeKey(DcafEncodingType.F);
+            if (encodedFace != null) {
+                writeBytes(encodedFace, encodedFace.length);
+            } else if (ticket.getFace() != null) {
+                writeFace(ticket.getFace());
+            } else {
+                writeByte(NULL);
+            }
+            writeKey(DcafEncodingType.V);
+            byte[] verifier = ticket.getVerifier().getVerifier();
+            if (verifier != null) {
+                writeHeader(MAJOR_BYTES, verifier.length);
+                writeBytes(verifier, verifier.length);
+            } else {
+                writeByte(NULL);
+            }
+            String cam = ticket.getCamIdentifier();
+            String server = ticket.getServerHost();
+            if (cam != null && !cam.isEmpty() && server != null && !server.isEmpty()) {
+                writeNullableText(CAM, cam);
+                writeNullableText(SERVER, server);
+            }
+            writeBreak();
+        }
+
+        private void writeSai(List<Authorization> sai) {
+            writeKey(DcafEncodingType.SAI);
+            writeByte(MAJOR_ARRAY << 5 | INDEFINITE);
+            for (Authorization authorization : sai) {
+                writeByte(MAJOR_ARRAY << 5 | INDEFINITE);
+                writeText(authorization.getUri());
+                writeLong(authorization.getMethods());
+                writeBreak();
+            }
+            writeBreak();
+        }
+
+        private void writeNullableText(String key, String value) {
+            writeKey(key);
+            if (value != null) {
+                writeText(value);
+            } else {
+                writeByte(NULL);
+            }
+        }
+
+        private void writeNumber(String key, long value) {
+            writeKey(key);
+            writeLong(value);
+        }
+
+        private void writeKey(String key) {
+            int integerKey = integerKeys ? DcafEncodingType.toIntegerKey(key) : -1;
+            if (integerKey >= 0) {
+                writeHeader(MAJOR_UNSIGNED, integerKey);
+            } else {
+                writeText(key);
+            }
+        }
+
+        private void writeMapStart() {
+            writeByte(MAJOR_MAP << 5 | INDEFINITE);
+        }
+
+        private void writeBreak() {
+            writeByte(BREAK);
+        }
+
+        private void writeText(String text) {
+            int textLength = text.length();
+            if (textLength > MAX_TEXT_LENGTH && !canonical) {
+                throw new IllegalArgumentException("Text is written in chunks by Jackson");
+            }
+            boolean ascii = true;
+            for (int i = 0; i < textLength && ascii; i++) {
+                ascii = text.charAt(i) < 0x80;
+            }
+
+            if (ascii) {
+                writeTextHeader(textLength);
+                ensureCapacity(textLength);
+                for (int i = 0; i < textLength; i++) {
+                    buffer[length++] = (byte) text.charAt(i);
+                }
+            } else {
+                byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+                writeTextHeader(utf8.length);
+                writeBytes(utf8, utf8.length);
+            }
+        }
+
+        /**
+         * Writes the header of a text like Jackson, which uses the next longer header for 23 and 255 bytes, or the
+         * shortest header for canonical texts.
+         */
+        private void writeTextHeader(int textLength) {
+            if (canonical) {
+                writeHeader(MAJOR_TEXT, textLength);
+            } else if (textLength < 23) {
+                writeByte(MAJOR_TEXT << 5 | textLength);
+            } else if (textLength < 255) {
+                writeByte(MAJOR_TEXT << 5 | 24);
+                writeUnsigned(textLength, 1);
+            } else {
+                writeByte(MAJOR_TEXT << 5 | 25);
+                writeUnsigned(textLength, 2);
+            }
+        }
+
+        /**
+         * Writes integers like Jackson: with the shortest header within the int range, with eight bytes outside.
+         * Canonical integers always have the shortest header.
+         */
+        private void writeLong(long value) {
+            int major = value < 0 ? MAJOR_NEGATIVE : MAJOR_UNSIGNED;
+            long magnitude = value < 0 ? -(value + 1) : value;
+            if (canonical || (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)) {
+                writeHeader(major, magnitude);
+            } else {
+                writeByte(major << 5 | 27);
+                writeUnsigned(magnitude, 8);
+            }
+        }
+
+        private void writeHeader(int major, long value) {
+            if (value < 24) {
+                writeByte(major << 5 | (int) value);
+            } else if (value <= 0xff) {
+                writeByte(major << 5 | 24);
+                writeUnsigned(value, 1);
+            } else if (value <= 0xffff) {
+                writeByte(major << 5 | 25);
+                writeUnsigned(value, 2);
+            } else if (value <= 0xffffffffL) {
+                writeByte(major << 5 | 26);
+                writeUnsigned(value, 4);
+            } else {
+                writeByte(major << 5 | 27);
+                writeUnsigned(value, 8);
+            }
+        }
+
+        private void writeUnsigned(long value, int bytes) {
+            ensureCapacity(bytes);
+            for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+                buffer[length++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int count) {
+            ensureCapacity(count);
+            System.arraycopy(bytes, 0, buffer, length, count);
+            length += count;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (length + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void reset() {
+            length = 0;
+            if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    /**
+     * Signals input the decoder does not read. Thrown without a stack trace, since it only selects the fallback.
+     */
+    private static class UnsupportedInputException extends Exception {
+        private static final long serialVersionUID = 1L;
+        private static final UnsupportedInputException INSTANCE = new UnsupportedInputException();
+
+        private UnsupportedInputException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Constructor of {@link AccessRequest} and {@link TicketRequestMessage}, which share their fields.
+     */
+    private interface RequestFactory<T> {
+        T create(String sam, List<Authorization> sai, long timestamp, String updateAttributes, String signature);
+    }
+
+    private static class Decoder {
+        private final byte[] input;
+        private int position;
+
+        private Decoder(byte[] input) {
+            this.input = input;
+        }
+
+        private <T> T readRequest(RequestFactory<T> factory) throws UnsupportedInputException, URISyntaxException {
+            String sam = null;
+            List<Authorization> sai = null;
+            long timestamp = 0;
+            String updateAttributes = null;
+            String signature = null;
+
+            int entries = readContainerStart(MAJOR_MAP);
+            for (int i = 0; hasNext(entries, i); i++) {
+                switch (readKey()) {
+                    case DcafEncodingType.SAM:
+                        sam = readNullableText();
+                        break;
+                    case DcafEncodingType.SAI:
+                        sai = readSai();
+                        break;
+                    case DcafEncodingType.TS:
+                        timestamp = readLong();
+                        break;
+                    case DcafEncodingType.UA:
+                        updateAttributes = readNullableText();
+                        break;
+                    case DcafEncodingType.S:
+                        signature = readNullableText();
+                        break;
+                    default:
+                        throw UnsupportedInputException.INSTANCE;
+                }
+            }
+            if (sai == null) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return factory.create(sam, sai, timestamp, updateAttributes, signature);
+        }
+
+        private Face readFace() throws UnsupportedInputException, URISyntaxException {
+            List<Authorization> sai = null;
+            long timestamp = 0;
+            long lifetime = 0;
+            String encoding = null;
+            String updateHashEncrypted = null;
+
+            int entries = readContainerStart(MAJOR_MAP);
+            for (int i = 0; hasNext(entries, i); i++) {
+                switch (readKey()) {
+                    case DcafEncodingType.SAI:
+                        sai = readNullableSai();
+                        break;
+                    case DcafEncodingType.TS:
+                        timestamp = readLong();
+                        break;
+                    case DcafEncodingType.L:
+                        lifetime = readLong();
+                        break;
+                    case DcafEncodingType.G:
+                        encoding = readNullableText();
+                        break;
+                    case DcafEncodingType.UH:
+                        updateHashEncrypted = readNullableText();
+                        break;
+                    default:
+                        throw UnsupportedInputException.INSTANCE;
+                }
+            }
+            if (encoding == null) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return new Face(sai, timestamp, lifetime, encoding, updateHashEncrypted);
+        }
+
+        private TicketGrantMessage readTicketGrantMessage() throws UnsupportedInputException, URISyntaxException {
+            String ticketId = null;
+            Face face = null;
+            byte[] verifier = null;
+            String cam = null;
+            String server = null;
+
+            int entries = readContainerStart(MAJOR_MAP);
+            for (int i = 0; hasNext(entries, i); i++) {
+                switch (readKey()) {
+                    case ID:
+                        ticketId = readNullableText();
+                        break;
+                    case DcafEncodingType.F:
+                        face = readNull() ? null : readFace();
+                        break;
+                    case DcafEncodingType.V:
+                        verifier = readNull() ? null : readBytes();
+                        break;
+                    case CAM:
+                        cam = readNullableText();
+                        break;
+                    case SERVER:
+                        server = readNullableText();
+                        break;
+                    default:
+                        throw UnsupportedInputException.INSTANCE;
+                }
+            }
+            return new TicketGrantMessage(ticketId, face, verifier, cam, server);
+        }
+
+        private List<Authorization> readNullableSai() throws UnsupportedInputException, URISyntaxException {
+            return readNull() ? null : readSai();
+        }
+
+        private List<Authorization> readSai() throws UnsupportedInputException, URISyntaxException {
+            int count = readContainerStart(MAJOR_ARRAY);
+            List<Authorization> sai = new ArrayList<>(count >= 0 ? count : 4);
+            for (int i = 0; hasNext(count, i); i++) {
+                int elements = readContainerStart(MAJOR_ARRAY);
+                if (!hasNext(elements, 0)) {
+                    throw UnsupportedInputException.INSTANCE;
+                }
+                String uri = readText();
+                if (!hasNext(elements, 1)) {
+                    throw UnsupportedInputException.INSTANCE;
+                }
+                long methods = readLong();
+                if (methods < Integer.MIN_VALUE || methods > Integer.MAX_VALUE || hasNext(elements, 2)) {
+                    throw UnsupportedInputException.INSTANCE;
+                }
+                // the same narrowing as in the JsonCreator constructor of Authorization
+                sai.add(Authorization.of(uri, (byte) methods));
+            }
+            return sai;
+        }
+
+        /**
+         * Reads a map key, DCAF keys may be text or CBOR integers.
+         */
+        private String readKey() throws UnsupportedInputException {
+            if (peekMajor() == MAJOR_UNSIGNED) {
+                String key = DcafEncodingType.fromIntegerKey(readArgument());
+                if (key == null) {
+                    throw UnsupportedInputException.INSTANCE;
+                }
+                return key;
+            }
+            return readText();
+        }
+
+        private String readNullableText() throws UnsupportedInputException {
+            return readNull() ? null : readText();
+        }
+
+        private String readText() throws UnsupportedInputException {
+            int textLength = readLength(MAJOR_TEXT);
+            for (int i = position; i < position + textLength; i++) {
+                if (input[i] < 0) {
+                    throw UnsupportedInputException.INSTANCE;
+                }
+            }
+            @SuppressWarnings("deprecation")
+            String text = new String(input, 0, position, textLength);
+            position += textLength;
+            return text;
+        }
+
+        private byte[] readBytes() throws UnsupportedInputException {
+            int bytesLength = readLength(MAJOR_BYTES);
+            byte[] bytes = Arrays.copyOfRange(input, position, position + bytesLength);
+            position += bytesLength;
+            return bytes;
+        }
+
+        private long readLong() throws UnsupportedInputException {
+            int major = peekMajor();
+            if (major != MAJOR_UNSIGNED && major != MAJOR_NEGATIVE) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            long value = readArgument();
+            if (value < 0) {
+                // does not fit into a long
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return major == MAJOR_UNSIGNED ? value : -1 - value;
+        }
+
+        private boolean readNull() {
+            if ((input[position] & 0xff) == NULL) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of elements, or -1 if the length is indefinite
+         */
+        private int readContainerStart(int major) throws UnsupportedInputException {
+            if (peekMajor() != major) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            if ((input[position] & 0x1f) == INDEFINITE) {
+                position++;
+                return -1;
+            }
+            return toContainerLength(major, readArgument());
+        }
+
+        /**
+         * Checks the declared number of elements against the remaining input, in which every element takes at least one
+         * byte, so the length read from the input can be used to size a collection.
+         */
+        private int toContainerLength(int major, long argument) throws UnsupportedInputException {
+            int count = toLength(argument);
+            long minimumLength = major == MAJOR_MAP ? 2L * count : count;
+            if (minimumLength > input.length - position) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return count;
+        }
+
+        private boolean hasNext(int count, int index) {
+            if (count >= 0) {
+                return index < count;
+            }
+            if ((input[position] & 0xff) == BREAK) {
+                position++;
+                return false;
+            }
+            return true;
+        }
+
+        private int readLength(int major) throws UnsupportedInputException {
+            if (peekMajor() != major || (input[position] & 0x1f) == INDEFINITE) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            int valueLength = toLength(readArgument());
+            if (valueLength > input.length - position) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return valueLength;
+        }
+
+        /**
+         * Skips the next data item.
+         *
+         * @param depth the number of containers the item is nested in, at most {@value #MAX_SKIP_DEPTH}
+         */
+        private void skip(int depth) throws UnsupportedInputException {
+            if (depth > MAX_SKIP_DEPTH) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            int major = peekMajor();
+            boolean indefinite = (input[position] & 0x1f) == INDEFINITE;
+            if (indefinite && major >= MAJOR_BYTES && major <= MAJOR_MAP) {
+                position++;
+                while ((input[position] & 0xff) != BREAK) {
+                    skip(depth + 1);
+                }
+                position++;
+                return;
+            }
+
+            long argument = readArgument();
+            switch (major) {
+                case MAJOR_BYTES:
+                case MAJOR_TEXT:
+                    int valueLength = toLength(argument);
+                    if (valueLength > input.length - position) {
+                        throw UnsupportedInputException.INSTANCE;
+                    }
+                    position += valueLength;
+                    break;
+                case MAJOR_ARRAY:
+                case MAJOR_MAP:
+                    int count = toContainerLength(major, argument);
+                    long items = major == MAJOR_MAP ? 2L * count : count;
+                    for (long i = 0; i < items; i++) {
+                        skip(depth + 1);
+                    }
+                    break;
+                case 6: // tag, followed by the tagged item
+                    skip(depth + 1);
+                    break;
+                default:
+                    // integers and simple values consist of the header only
+                    break;
+            }
+        }
+
+        private int peekMajor() {
+            return (input[position] & 0xff) >>> 5;
+        }
+
+        private long readArgument() throws UnsupportedInputException {
+            int additional = input[position++] & 0x1f;
+            if (additional < 24) {
+                return additional;
+            }
+            if (additional > 27) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            int bytes = 1 << (additional - 24);
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = value << 8 | (input[position++] & 0xff);
+            }
+            return value;
+        }
+
+        private static int toLength(long value) throws UnsupportedInputException {
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw UnsupportedInputException.INSTANCE;
+            }
+            return (int) value;
+        }
+
+        private boolean isAtEnd() {
+            return position == input.length;
+        }
+    }
+}
@@ -25,6 +25,8 @@ public class DcafEncodingType {
     public static final String UH = "15";
 
     public static final HashBiMap<String, String> registry;
+    // The keys indexed by their value as CBOR integer key
+    private static final String[] integerKeys = {SAM, SAI, CAI, E, K, TS, L, G, F, V, A, D, N, UA, S, UH};
     static {
         BiMap<String, String> temp = HashBiMap.create();
         temp.put(SAM, "SAM");
@@ -65,4 +67,22 @@ public class DcafEncodingType {
             return null;
         }
     }
+
+    /**
+     * @return the key as CBOR integer key, or -1 if it is not a DCAF key
+     */
+    public static int toIntegerKey(String encodingType) {
+        return registry.containsKey(encodingType) ? Integer.parseInt(encodingType) : -1;
+    }
+
+    /**
+     * @return the key for a CBOR integer key, or null if it is not a DCAF key
+     */
+    public static String fromIntegerKey(long integerKey) {
+        if (integerKey >= 0 && integerKey < integerKeys.length) {
+            return integerKeys[(int) integerKey];
+        } else {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package de.unibremen.beduino.dcaf;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the ticket pipeline, so latency can be correlated with GC and I/O in one recording.
+ * While no recording enables them, {@link Event#begin()} and {@link Event#commit()} do nothing and the JIT removes the
+ * event allocation; values which are expensive to compute are only set if {@link Event#shouldCommit()} is true.
+ * <p>
+ * JFR is only available from 8u262 on. The event classes must therefore only be used through the {@code begin}
+ * methods, which return null on a JVM without JFR, so the event classes are never loaded there.
+ *
+ * @author Norman Lipkow
+ */
+final class DcafEvents {
+    private static final String CATEGORY = "DCAF";
+    static final boolean ENABLED = isJfrAvailable();
+
+    private DcafEvents() {
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static TicketRequest beginTicketRequest() {
+        if (!ENABLED) {
+            return null;
+        }
+        TicketRequest event = new TicketRequest();
+        event.begin();
+        return event;
+    }
+
+    static VerifierGeneration beginVerifierGeneration() {
+        if (!ENABLED) {
+            return null;
+        }
+        VerifierGeneration event = new VerifierGeneration();
+        event.begin();
+        return event;
+    }
+
+    static PskLookup beginPskLookup() {
+        if (!ENABLED) {
+            return null;
+        }
+        PskLookup event = new PskLookup();
+        event.begin();
+        return event;
+    }
+
+    static DaoRead beginDaoRead() {
+        if (!ENABLED) {
+            return null;
+        }
+        DaoRead event = new DaoRead();
+        event.begin();
+        return event;
+    }
+
+    static DaoWrite beginDaoWrite() {
+        if (!ENABLED) {
+            return null;
+        }
+        DaoWrite event = new DaoWrite();
+        event.begin();
+        return event;
+    }
+
+    static RevocationSweep beginRevocationSweep() {
+        if (!ENABLED) {
+            return null;
+        }
+        RevocationSweep event = new RevocationSweep();
+        event.begin();
+        return event;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.TicketRequest")
+    @Label("Ticket Request")
+    @Description("Handling of a ticket request on SAM's authorize resource")
+    @Category({CATEGORY, "SAM"})
+    @StackTrace(false)
+    static class TicketRequest extends Event {
+        @Label("CAM Identifier")
+        String camIdentifier;
+
+        @Label("Requested Authorizations")
+        int saiCount;
+
+        @Label("Granted Authorizations")
+        int grantedCount;
+
+        @Label("Decision")
+        @Description("One of granted, denied, rejected or failed")
+        String decision;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.VerifierGeneration")
+    @Label("Verifier Generation")
+    @Description("Computation of the MAC over an encoded face")
+    @Category({CATEGORY, "SAM"})
+    @StackTrace(false)
+    static class VerifierGeneration extends Event {
+        @Label("Server Host")
+        String serverHost;
+
+        @Label("MAC Method")
+        String macMethod;
+
+        @Label("Face Size")
+        @DataAmount
+        int faceBytes;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.PskLookup")
+    @Label("PSK Lookup")
+    @Description("Lookup of a pre-shared key during a DTLS handshake")
+    @Category({CATEGORY, "DTLS"})
+    @StackTrace(false)
+    static class PskLookup extends Event {
+        @Label("Identity")
+        String identity;
+
+        @Label("Found")
+        boolean found;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.DaoRead")
+    @Label("DAO Read")
+    @Description("Replay of the DAO log for one entity type")
+    @Category({CATEGORY, "DAO"})
+    static class DaoRead extends Event {
+        @Label("Entity Type")
+        String entityType;
+
+        @Label("Entities")
+        int entities;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.DaoWrite")
+    @Label("DAO Write")
+    @Description("Write of records to the DAO log or of a new snapshot")
+    @Category({CATEGORY, "DAO"})
+    static class DaoWrite extends Event {
+        @Label("Operation")
+        @Description("Either append or snapshot")
+        String operation;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+
+        @Label("Forced")
+        @Description("Whether the file was forced to disk")
+        boolean forced;
+    }
+
+    @Name("de.unibremen.beduino.dcaf.RevocationSweep")
+    @Label("Revocation Sweep")
+    @Description("Revocation of the tickets which expired since the last tick")
+    @Category({CATEGORY, "SAM"})
+    @StackTrace(false)
+    static class RevocationSweep extends Event {
+        @Label("Expired Tickets")
+        int tickets;
+    }
+}
@@ -12,6 +12,8 @@ import java.util.List;
  * @author Norman Lipkow
  */
 class DcafJsonSerializer {
+    // Attribute of the ObjectWriter which selects integer keys for the DCAF messages
+    static final String INTEGER_KEYS = "dcaf.integerKeys";
 
     protected static class AccessRequestSerializer extends JsonSerializer<AccessRequest> {
 
@@ -19,11 +21,14 @@ class DcafJsonSerializer {
         public void serialize(AccessRequest value, JsonGenerator jgen, SerializerProvider provider)
                 throws IOException {
             jgen.writeStartObject();
-            jgen.writeStringField(DcafEncodingType.SAM, value.getSam());
-            serializeAuthorizeListToObjectArray(jgen, value.getSai());
+            writeKey(jgen, provider, DcafEncodingType.SAM);
+            jgen.writeString(value.getSam());
+            serializeAuthorizeListToObjectArray(jgen, provider, value.getSai());
             if (value.getTimestamp() != 0) {
-                jgen.writeNumberField(DcafEncodingType.TS, value.getTimestamp());
+                writeKey(jgen, provider, DcafEncodingType.TS);
+                jgen.writeNumber(value.getTimestamp());
             }
+            serializeUpdateAttributes(jgen, provider, value.getUpdateAttributes(), value.getSignature());
             jgen.writeEndObject();
         }
     }
@@ -80,12 +85,16 @@ class DcafJsonSerializer {
         public void serialize(Face value, JsonGenerator jgen, SerializerProvider provider)
                 throws IOException {
             jgen.writeStartObject();
-            serializeAuthorizeListToObjectArray(jgen, value.getSai());
-            jgen.writeNumberField(DcafEncodingType.TS, value.getTimestamp());
-            jgen.writeNumberField(DcafEncodingType.L, value.getLifetime());
-            jgen.writeObjectField(DcafEncodingType.G, value.getMacMethod().getEncoding());
+            serializeAuthorizeListToObjectArray(jgen, provider, value.getSai());
+            writeKey(jgen, provider, DcafEncodingType.TS);
+            jgen.writeNumber(value.getTimestamp());
+            writeKey(jgen, provider, DcafEncodingType.L);
+            jgen.writeNumber(value.getLifetime());
+            writeKey(jgen, provider, DcafEncodingType.G);
+            jgen.writeObject(value.getMacMethod().getEncoding());
             if (value.getUpdateHashEncrypted() != null) {
-                jgen.writeStringField(DcafEncodingType.UH, value.getUpdateHashEncrypted());
+                writeKey(jgen, provider, DcafEncodingType.UH);
+                jgen.writeString(value.getUpdateHashEncrypted());
             }
             jgen.writeEndObject();
         }
@@ -182,8 +191,11 @@ class DcafJsonSerializer {
                 throws IOException {
             jgen.writeStartObject();
             jgen.writeStringField("id", value.getId());
-            jgen.writeObjectField(DcafEncodingType.F, value.getFace());
-            jgen.writeObjectField(DcafEncodingType.V, value.getVerifier().getVerifier());
+            writeKey(jgen, provider, DcafEncodingType.F);
+            // through the provider, so the face is written with the same attributes
+            provider.defaultSerializeValue(value.getFace(), jgen);
+            writeKey(jgen, provider, DcafEncodingType.V);
+            jgen.writeObject(value.getVerifier().getVerifier());
             if (StringUtils.isNotEmpty(value.getCamIdentifier()) && StringUtils.isNotEmpty(value.getServerHost())) {
                 jgen.writeStringField("cam", value.getCamIdentifier());
                 jgen.writeStringField("server", value.getServerHost());
@@ -199,22 +211,52 @@ class DcafJsonSerializer {
                 throws IOException {
 
             jgen.writeStartObject();
-            jgen.writeStringField(DcafEncodingType.SAM, value.getSamUrl());
-            serializeAuthorizeListToObjectArray(jgen, value.getSai());
+            writeKey(jgen, provider, DcafEncodingType.SAM);
+            jgen.writeString(value.getSamUrl());
+            serializeAuthorizeListToObjectArray(jgen, provider, value.getSai());
             if (value.getTimestamp() > 0) {
-                jgen.writeNumberField(DcafEncodingType.TS, value.getTimestamp());
+                writeKey(jgen, provider, DcafEncodingType.TS);
+                jgen.writeNumber(value.getTimestamp());
             }
+            serializeUpdateAttributes(jgen, provider, value.getUpdateAttributes(), value.getSignature());
             jgen.writeEndObject();
         }
 
     }
 
-    private static void serializeAuthorizeListToObjectArray(JsonGenerator jgen, List<Authorization> sai) throws IOException {
-        jgen.writeFieldName(DcafEncodingType.SAI);
+    private static void serializeAuthorizeListToObjectArray(JsonGenerator jgen, SerializerProvider provider,
+                                                            List<Authorization> sai) throws IOException {
+        writeKey(jgen, provider, DcafEncodingType.SAI);
         jgen.writeStartArray();
         for (Authorization auth : sai) {
             jgen.writeObject(auth);
         }
         jgen.writeEndArray();
     }
+
+    /**
+     * Writes the signed update attributes of an update request, which are left out if they are not set.
+     */
+    private static void serializeUpdateAttributes(JsonGenerator jgen, SerializerProvider provider,
+                                                  String updateAttributes, String signature) throws IOException {
+        if (updateAttributes != null) {
+            writeKey(jgen, provider, DcafEncodingType.UA);
+            jgen.writeString(updateAttributes);
+        }
+        if (signature != null) {
+            writeKey(jgen, provider, DcafEncodingType.S);
+            jgen.writeString(signature);
+        }
+    }
+
+    /**
+     * Writes a DCAF key as CBOR integer key if the {@link #INTEGER_KEYS} attribute is set, else as text.
+     */
+    private static void writeKey(JsonGenerator jgen, SerializerProvider provider, String key) throws IOException {
+        if (Boolean.TRUE.equals(provider.getAttribute(INTEGER_KEYS))) {
+            jgen.writeFieldId(DcafEncodingType.toIntegerKey(key));
+        } else {
+            jgen.writeFieldName(key);
+        }
+    }
 }
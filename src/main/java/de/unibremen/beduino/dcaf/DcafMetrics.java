@@ -0,0 +1,83 @@
+package de.unibremen.beduino.dcaf;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the ticket pipeline on SAM and CAM. They are registered in {@link Metrics#globalRegistry}, to which Spring
+ * Boot adds its registries, so they are exported through the actuator metrics endpoint.
+ *
+ * @author Norman Lipkow
+ */
+final class DcafMetrics {
+
+    /**
+     * The stages of handling a request to SAM's authorize resource, each timed by {@code dcaf.sam.authorize.stage}.
+     */
+    enum Stage {
+        DECODE("decode"),
+        CAM_LOOKUP("camLookup"),
+        UPDATE_VERIFICATION("updateVerification"),
+        FILTER_PERMISSIONS("filterPermissions"),
+        VERIFIER("verifier"),
+        DAO_SAVE("daoSave"),
+        ENCODE("encode");
+
+        private final Timer timer;
+
+        Stage(String name) {
+            timer = Timer.builder("dcaf.sam.authorize.stage")
+                    .description("Time spent in a stage of handling an authorize request")
+                    .tag("stage", name)
+                    .register(Metrics.globalRegistry);
+        }
+    }
+
+    static final Counter TICKETS_GRANTED = ticketCounter("granted");
+    static final Counter TICKETS_DENIED = ticketCounter("denied");
+    static final Counter TICKETS_REVOKED = ticketCounter("revoked");
+
+    static final Counter CAM_CACHE_HITS = camCacheCounter("hit");
+    static final Counter CAM_CACHE_MISSES = camCacheCounter("miss");
+    static final Counter CAM_COALESCED = Counter.builder("dcaf.cam.sam.coalesced")
+            .description("Number of access requests which joined an outstanding ticket request to SAM")
+            .register(Metrics.globalRegistry);
+    static final Counter CAM_SAM_TIMEOUTS = Counter.builder("dcaf.cam.sam.timeouts")
+            .description("Number of ticket requests to SAM which got no response in time or could not be sent")
+            .register(Metrics.globalRegistry);
+    static final Timer CAM_SAM_FORWARD = Timer.builder("dcaf.cam.sam.forward")
+            .description("Time from forwarding a ticket request to SAM until its response arrived")
+            .register(Metrics.globalRegistry);
+
+    private DcafMetrics() {
+    }
+
+    /**
+     * Records the time since {@code start} for a stage.
+     *
+     * @param start the {@link System#nanoTime()} at which the stage started
+     * @return the current {@link System#nanoTime()}, which is the start of the next stage
+     */
+    static long recordStage(Stage stage, long start) {
+        long now = System.nanoTime();
+        stage.timer.record(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    private static Counter camCacheCounter(String result) {
+        return Counter.builder("dcaf.cam.ticketCache")
+                .description("Number of cacheable access requests the CAM answered from its ticket cache or not")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+
+    private static Counter ticketCounter(String result) {
+        return Counter.builder("dcaf.sam.tickets")
+                .description("Number of tickets granted, denied and revoked by SAM")
+                .tag("result", result)
+                .register(Metrics.globalRegistry);
+    }
+}
@@ -1,6 +1,8 @@
 package de.unibremen.beduino.dcaf;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -8,6 +10,7 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.apache.commons.codec.binary.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -268,6 +271,8 @@ class FileDAO implements DAO {
             }
         } catch (JsonProcessingException e) {
             logger.error("Unable to write json object as String value", e);
+        } catch (IOException e) {
+            logger.error("Error while trying to write to file " + path, e);
         }
 
         return false;
@@ -351,6 +356,8 @@ class FileDAO implements DAO {
             }
         } catch (JsonProcessingException e) {
             logger.error("Unable to write json object as String value", e);
+        } catch (IOException e) {
+            logger.error("Error while trying to write to file " + path, e);
         }
 
         return false;
@@ -385,45 +392,53 @@ class FileDAO implements DAO {
             node = arrayNode;
         }
 
-        Utils.transformDcafEncodingsToStringValues(node);
-
         try {
             writeJsonNodeToFile(path, node);
             return true;
         } catch (JsonProcessingException e) {
             logger.error("Unable to write json object as String value", e);
+        } catch (IOException e) {
+            logger.error("Error while trying to write to file " + path, e);
         }
 
         return false;
     }
 
-    private void writeJsonNodeToFile(String path, JsonNode jsonNode) throws JsonProcessingException {
-        String json;
-        if (jsonNode != null) {
-            Utils.transformDcafEncodingsToStringValues(jsonNode);
-            json = jsonMapper.writerWithDefaultPrettyPrinter().writeValueAsString(jsonNode);
-        } else {
-            json = "";
-        }
+    /**
+     * Writes the node with the DCAF keys replaced by their names, see {@link DcafEncodingType#registry}.
+     *
+     * @throws JsonProcessingException if the node could not be written as json
+     * @throws IOException             if the file could not be written
+     */
+    private void writeJsonNodeToFile(String path, JsonNode jsonNode) throws IOException {
         File file = new File(path);
         file.getParentFile().mkdirs();
 
         try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))
         {
-            fileWriter.write(json);
-        } catch (IOException e) {
-            logger.error("Error while trying to write to file " + path, e);
+            if (jsonNode != null) {
+                try (JsonGenerator generator = jsonMapper.getFactory().createGenerator(fileWriter)
+                        .useDefaultPrettyPrinter();
+                     JsonParser parser = jsonMapper.treeAsTokens(jsonNode)) {
+                    Utils.copyRenamingKeys(parser, generator, DcafEncodingType.registry);
+                }
+            }
         }
     }
 
+    /**
+     * Reads the node with the DCAF key names replaced by the keys, see {@link DcafEncodingType#registry}.
+     */
     private JsonNode readJsonFromFile(String path) {
-        try {
-            if (fileIsEmpty(path)) {
-                return null;
-            }
-            JsonNode jsonNode = jsonMapper.readTree(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
-            Utils.transformStringValuesToDcafEncodings(jsonNode);
-            return jsonNode;
+        if (fileIsEmpty(path)) {
+            return null;
+        }
+
+        try (JsonParser parser = jsonMapper.getFactory().createParser(
+                new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8))) {
+            TokenBuffer tokens = new TokenBuffer(parser);
+            Utils.copyRenamingKeys(parser, tokens, DcafEncodingType.registry.inverse());
+            return jsonMapper.readTree(tokens.asParser());
         } catch (JsonProcessingException e) {
             logger.error("Error while trying to read json tree from file " + path, e);
         } catch (IOException e) {
@@ -0,0 +1,150 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link SpanExporter} which appends every span as one JSON object per line to a file. The spans are written by a
+ * background thread, so ending a span never waits for the disk. If the writer falls behind, spans are dropped.
+ *
+ * @author Norman Lipkow
+ */
+class FileSpanExporter implements SpanExporter {
+    private static Logger logger = LoggerFactory.getLogger(FileSpanExporter.class);
+    private static final int QUEUE_CAPACITY = 100000;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long SHUTDOWN_TIMEOUT = 5; // in seconds
+    private static final Span SHUTDOWN = new Span(null, null, 0, 0, 0);
+
+    private final String path;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final BlockingQueue<Span> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private Writer writer;
+
+    /**
+     * @param path the file to append the spans to
+     */
+    FileSpanExporter(String path) {
+        this.path = path;
+        try {
+            File file = new File(path);
+            if (file.getAbsoluteFile().getParentFile() != null) {
+                file.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                    StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.error("Could not open span file " + path + ", spans are dropped", e);
+        }
+
+        writerThread = new Thread(this::writeBatches, "Span Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void export(Span span) {
+        if (!queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            queue.put(SHUTDOWN);
+            writerThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0) {
+            logger.warn(dropped.get() + " spans were dropped because the writer fell behind");
+        }
+    }
+
+    private void writeBatches() {
+        List<Span> batch = new ArrayList<>();
+        boolean shutdown = false;
+        while (!shutdown) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            shutdown = batch.remove(SHUTDOWN);
+            if (writer != null && !batch.isEmpty()) {
+                write(batch);
+            }
+            batch.clear();
+        }
+
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error("Error while closing span file " + path, e);
+            }
+        }
+    }
+
+    private void write(List<Span> batch) {
+        try {
+            JsonGenerator generator = jsonFactory.createGenerator(writer);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            for (Span span : batch) {
+                writeSpan(generator, span);
+                generator.writeRaw('\n');
+            }
+            generator.close();
+            writer.flush();
+        } catch (IOException e) {
+            logger.error("Error while writing " + batch.size() + " spans to " + path, e);
+        }
+    }
+
+    private static void writeSpan(JsonGenerator generator, Span span) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("traceId", String.format("%016x", span.getTraceId()));
+        generator.writeStringField("spanId", String.format("%016x", span.getSpanId()));
+        if (span.getParentSpanId() != 0) {
+            generator.writeStringField("parentSpanId", String.format("%016x", span.getParentSpanId()));
+        }
+        generator.writeStringField("name", span.getName());
+        generator.writeNumberField("start", span.getStart());
+        generator.writeNumberField("duration", span.getDuration());
+        generator.writeObjectFieldStart("tags");
+        for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+            Object value = tag.getValue();
+            if (value instanceof Number) {
+                generator.writeNumberField(tag.getKey(), ((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                generator.writeBooleanField(tag.getKey(), (Boolean) value);
+            } else {
+                generator.writeStringField(tag.getKey(), String.valueOf(value));
+            }
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,236 @@
+package de.unibremen.beduino.dcaf;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Applies changes to a backing store on a single thread. All changes which are queued while the previous batch is
+ * being committed are applied together and made durable with a single sync according to the {@link SyncPolicy}, so
+ * concurrent writers share the cost of a flush.
+ * <p>
+ * If the backing store rejects a change or a sync fails, memory and disk may differ from then on. The writer is
+ * then marked as failed and rejects all further changes until the process is restarted.
+ *
+ * @author Norman Lipkow
+ */
+class GroupCommitWriter {
+    private static Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int SHUTDOWN_TIMEOUT = 10; // in seconds
+    private static final PendingChange SHUTDOWN = new PendingChange(() -> true);
+
+    private final SyncPolicy policy;
+    private final Sync sync;
+    private final BlockingQueue<PendingChange> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean unsynced = new AtomicBoolean();
+    private final Thread writerThread;
+    private final ScheduledExecutorService syncExecutor;
+    private final Timer commitLatency;
+    private final DistributionSummary batchSize;
+    private volatile boolean running = true;
+    private volatile Exception failure;
+
+    /**
+     * Flushes the changes applied so far to the backing store.
+     */
+    interface Sync {
+        /**
+         * @param force if true, the changes must be on disk when this method returns
+         */
+        void sync(boolean force) throws IOException;
+    }
+
+    private static class PendingChange {
+        private final BooleanSupplier change;
+        private final CompletableFuture<Void> commit = new CompletableFuture<>();
+        private final long submitTime = System.nanoTime();
+
+        private PendingChange(BooleanSupplier change) {
+            this.change = change;
+        }
+    }
+
+    /**
+     * @param policy       when changes are forced to disk
+     * @param syncInterval the interval in milliseconds between two syncs, only used for {@link SyncPolicy#INTERVAL}
+     * @param sync         flushes the backing store
+     */
+    GroupCommitWriter(SyncPolicy policy, long syncInterval, Sync sync) {
+        this.policy = policy;
+        this.sync = sync;
+        this.commitLatency = Timer.builder("dcaf.dao.commit.latency")
+                .description("Time from submitting a DAO change until it is committed")
+                .tag("policy", policy.name())
+                .register(Metrics.globalRegistry);
+        this.batchSize = DistributionSummary.builder("dcaf.dao.commit.batch.size")
+                .description("Number of DAO changes committed together")
+                .tag("policy", policy.name())
+                .register(Metrics.globalRegistry);
+
+        writerThread = new Thread(this::writeBatches, "DAO Group Commit");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        if (policy == SyncPolicy.INTERVAL) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DAO Interval Sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::syncIfNecessary, syncInterval, syncInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            syncExecutor = null;
+        }
+    }
+
+    SyncPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return true if a change or sync failed, after which no further changes are accepted
+     */
+    boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Queues a change for the backing store.
+     *
+     * @param change the change, returning false if the backing store rejected it
+     * @return a future which completes once the change is committed according to the {@link SyncPolicy}, or
+     * exceptionally if the backing store rejected it or could not sync it
+     */
+    CompletableFuture<Void> submit(BooleanSupplier change) {
+        PendingChange pendingChange = new PendingChange(change);
+        if (!running) {
+            pendingChange.commit.completeExceptionally(new IllegalStateException("Group commit writer is closed"));
+            return pendingChange.commit;
+        }
+        if (failure != null) {
+            pendingChange.commit.completeExceptionally(new IllegalStateException("Backing DAO failed", failure));
+            return pendingChange.commit;
+        }
+        queue.add(pendingChange);
+        return pendingChange.commit;
+    }
+
+    /**
+     * Commits all queued changes and stops the writer.
+     */
+    void close() {
+        running = false;
+        queue.add(SHUTDOWN);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+        }
+        if (policy != SyncPolicy.OS_MANAGED) {
+            syncIfNecessary();
+        }
+    }
+
+    private void writeBatches() {
+        List<PendingChange> batch = new ArrayList<>();
+        boolean shutdown = false;
+        while (!shutdown) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            shutdown = batch.remove(SHUTDOWN);
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingChange> batch) {
+        List<PendingChange> applied = new ArrayList<>(batch.size());
+        for (PendingChange pendingChange : batch) {
+            Exception changeFailure = null;
+            try {
+                if (!pendingChange.change.getAsBoolean()) {
+                    changeFailure = new IllegalStateException("Backing DAO did not apply a change which was already " +
+                            "applied in memory");
+                }
+            } catch (RuntimeException e) {
+                changeFailure = e;
+            }
+
+            if (changeFailure != null) {
+                fail("Failed to persist change in backing DAO", changeFailure);
+                pendingChange.commit.completeExceptionally(changeFailure);
+            } else {
+                applied.add(pendingChange);
+            }
+        }
+
+        IOException syncFailure = null;
+        try {
+            boolean force = policy.waitsForCommit();
+            sync.sync(force);
+            if (!force) {
+                unsynced.set(true);
+            }
+        } catch (IOException e) {
+            fail("Failed to sync " + batch.size() + " DAO changes", e);
+            syncFailure = e;
+        }
+
+        long now = System.nanoTime();
+        batchSize.record(batch.size());
+        for (PendingChange pendingChange : batch) {
+            commitLatency.record(now - pendingChange.submitTime, TimeUnit.NANOSECONDS);
+        }
+        for (PendingChange pendingChange : applied) {
+            if (syncFailure != null) {
+                pendingChange.commit.completeExceptionally(syncFailure);
+            } else {
+                pendingChange.commit.complete(null);
+            }
+        }
+    }
+
+    private void syncIfNecessary() {
+        if (unsynced.getAndSet(false)) {
+            try {
+                sync.sync(true);
+            } catch (IOException e) {
+                unsynced.set(true);
+                fail("Failed to sync DAO changes", e);
+            }
+        }
+    }
+
+    private void fail(String message, Exception cause) {
+        logger.error(message, cause);
+        if (failure == null) {
+            failure = cause;
+            logger.error("Memory and backing DAO may differ, further changes are rejected until restart");
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package de.unibremen.beduino.dcaf;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * {@link DAO} which keeps all entities in memory. The entities are loaded once from a backing {@link DAO} when the
+ * instance is created, afterwards all reads are served from memory. Changes are applied to memory immediately and
+ * handed to the backing DAO in order by a {@link GroupCommitWriter}. Callers only wait for the disk if the
+ * {@link SyncPolicy} of the writer requires every change to be synced. Once the writer failed, changes are rejected
+ * before they are applied to memory.
+ * <p>
+ * Entities are copied when they are stored and when they are returned, so a caller which modifies an entity cannot
+ * change the state in memory without the change being handed to the backing DAO.
+ * <p>
+ * Tickets are additionally indexed by CAM identifier, server host and resource path, so tickets affected by a change
+ * can be found without scanning all tickets.
+ *
+ * @author Norman Lipkow
+ */
+class InMemoryDAO implements DAO {
+    private static Logger logger = LoggerFactory.getLogger(InMemoryDAO.class);
+    private static final String SYNC_POLICY_PROPERTY = "dcaf.dao.syncPolicy";
+    private static final String SYNC_INTERVAL_PROPERTY = "dcaf.dao.syncInterval";
+    private static final long DEFAULT_SYNC_INTERVAL = 1000; // in milliseconds
+    private static InMemoryDAO dao;
+
+    private final DAO backend;
+    private final GroupCommitWriter writer;
+
+    private final ConcurrentMap<String, TicketGrantMessage> tickets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AccessRule> accessRules = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CamInfo> cams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RevocationTicket> revocations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ServerInfo> servers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<String>> ticketsByCam = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> ticketsByServer = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> ticketsByResource = new ConcurrentHashMap<>();
+
+    InMemoryDAO(DAO backend, GroupCommitWriter writer) {
+        this.backend = backend;
+        this.writer = writer;
+        load();
+
+        Gauge.builder("dcaf.sam.tickets.live", tickets, Map::size)
+                .description("Number of tickets which are neither expired nor revoked")
+                .register(Metrics.globalRegistry);
+    }
+
+    /**
+     * Returns the shared instance backed by {@link LogDAO}. The sync policy can be selected with the system
+     * properties {@value SYNC_POLICY_PROPERTY} (one of {@link SyncPolicy}, default {@link SyncPolicy#INTERVAL}) and
+     * {@value SYNC_INTERVAL_PROPERTY} (in milliseconds).
+     */
+    static synchronized InMemoryDAO getInstance() {
+        if (dao == null) {
+            SyncPolicy policy = SyncPolicy.valueOf(
+                    System.getProperty(SYNC_POLICY_PROPERTY, SyncPolicy.INTERVAL.name()));
+            long syncInterval = Long.getLong(SYNC_INTERVAL_PROPERTY, DEFAULT_SYNC_INTERVAL);
+            LogDAO logDAO = LogDAO.getInstance();
+
+            dao = new InMemoryDAO(logDAO, new GroupCommitWriter(policy, syncInterval, logDAO::sync));
+            Runtime.getRuntime().addShutdownHook(new Thread(dao::close, "DAO Shutdown"));
+            logger.info("DAO changes are synced with policy " + policy);
+        }
+        return dao;
+    }
+
+    /**
+     * Commits all pending changes to the backing DAO and stops the writer.
+     */
+    void close() {
+        writer.close();
+    }
+
+    private void load() {
+        for (TicketGrantMessage ticket : backend.getTickets()) {
+            tickets.put(ticket.getId(), ticket);
+            indexTicket(null, ticket);
+        }
+        for (AccessRule accessRule : backend.getAccessRules()) {
+            accessRules.put(accessRule.getId(), accessRule);
+        }
+        for (CamInfo camInfo : backend.getClientAuthorizationManagers()) {
+            cams.put(camInfo.getId(), camInfo);
+        }
+        for (RevocationTicket revocationTicket : backend.getRevocationTickets()) {
+            String id = getRevocationId(revocationTicket);
+            if (id != null) {
+                revocations.put(id, revocationTicket);
+            }
+        }
+        for (ServerInfo serverInfo : backend.getServerInformations()) {
+            servers.put(serverInfo.getHost(), serverInfo);
+        }
+
+        logger.info("Loaded " + tickets.size() + " tickets, " + accessRules.size() + " access rules, " + cams.size() +
+                " CAMs, " + revocations.size() + " revocations and " + servers.size() + " servers into memory.");
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTickets() {
+        return new ArrayList<>(tickets.values());
+    }
+
+    @Override
+    public TicketGrantMessage getTicket(String ticketId) {
+        return tickets.get(ticketId);
+    }
+
+    @Override
+    public boolean deleteTicket(String ticketId) {
+        return remove(tickets, ticketId, () -> backend.deleteTicket(ticketId), this::indexTicket);
+    }
+
+    @Override
+    public boolean saveTicket(TicketGrantMessage ticket) {
+        // Callers may still modify the ticket afterwards (e.g. to strip internal fields before sending it),
+        // therefore a copy is stored.
+        TicketGrantMessage copy = copyOf(ticket);
+        return insert(tickets, copy.getId(), copy, () -> backend.saveTicket(copy), this::indexTicket);
+    }
+
+    @Override
+    public boolean updateTicket(TicketGrantMessage ticket) {
+        TicketGrantMessage copy = copyOf(ticket);
+        return replace(tickets, copy.getId(), copy, () -> backend.updateTicket(copy), this::indexTicket);
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByCamIdentifier(String camIdentifier) {
+        return getIndexedTickets(ticketsByCam, camIdentifier);
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByServerHost(String host) {
+        return getIndexedTickets(ticketsByServer, host);
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByResourcePath(String resourcePath) {
+        return getIndexedTickets(ticketsByResource, resourcePath);
+    }
+
+    @Override
+    public List<AccessRule> getAccessRules() {
+        return copyAll(accessRules, InMemoryDAO::copyOf);
+    }
+
+    @Override
+    public AccessRule getAccessRule(String ruleId) {
+        AccessRule accessRule = accessRules.get(ruleId);
+        return accessRule != null ? copyOf(accessRule) : null;
+    }
+
+    @Override
+    public boolean deleteAccessRule(String accessRuleId) {
+        return remove(accessRules, accessRuleId, () -> backend.deleteAccessRule(accessRuleId));
+    }
+
+    @Override
+    public boolean saveAccessRule(AccessRule accessRule) {
+        AccessRule copy = copyOf(accessRule);
+        if (!insert(accessRules, copy.getId(), copy, () -> backend.saveAccessRule(copy))) {
+            logger.error("Failed to persist object " + AccessRule.class + " with id " + accessRule.getId() +
+                    ". An object with the same id already existed");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean updateAccessRule(AccessRule accessRule) {
+        AccessRule copy = copyOf(accessRule);
+        return replace(accessRules, copy.getId(), copy, () -> backend.updateAccessRule(copy));
+    }
+
+    @Override
+    public List<CamInfo> getClientAuthorizationManagers() {
+        return copyAll(cams, InMemoryDAO::copyOf);
+    }
+
+    @Override
+    public CamInfo getClientAuthorizationManager(String camIdentifier) {
+        CamInfo camInfo = cams.get(camIdentifier);
+        return camInfo != null ? copyOf(camInfo) : null;
+    }
+
+    @Override
+    public boolean deleteClientAuthorizationManager(String camIdentifier) {
+        return remove(cams, camIdentifier, () -> backend.deleteClientAuthorizationManager(camIdentifier));
+    }
+
+    @Override
+    public boolean saveClientAuthorizationManager(CamInfo camInfo) {
+        CamInfo copy = copyOf(camInfo);
+        if (!insert(cams, copy.getId(), copy, () -> backend.saveClientAuthorizationManager(copy))) {
+            logger.error("Failed to persist object " + CamInfo.class + " with id " + camInfo.getId() +
+                    ". An object with the same id already existed");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean updateClientAuthorizationManager(CamInfo camInfo) {
+        CamInfo copy = copyOf(camInfo);
+        return replace(cams, copy.getId(), copy, () -> backend.updateClientAuthorizationManager(copy));
+    }
+
+    @Override
+    public List<RevocationTicket> getRevocationTickets() {
+        return new ArrayList<>(revocations.values());
+    }
+
+    @Override
+    public RevocationTicket getRevocationTicket(String revocationId) {
+        return revocations.get(revocationId);
+    }
+
+    @Override
+    public boolean deleteRevocationTicket(String revocationId) {
+        return remove(revocations, revocationId, () -> backend.deleteRevocationTicket(revocationId));
+    }
+
+    @Override
+    public boolean saveRevocationTicket(RevocationTicket revocationTicket) {
+        String id = getRevocationId(revocationTicket);
+        return id != null && insert(revocations, id, revocationTicket,
+                () -> backend.saveRevocationTicket(revocationTicket));
+    }
+
+    @Override
+    public boolean updateRevocationTicket(RevocationTicket revocationTicket) {
+        String id = getRevocationId(revocationTicket);
+        return id != null && replace(revocations, id, revocationTicket,
+                () -> backend.updateRevocationTicket(revocationTicket));
+    }
+
+    @Override
+    public List<ServerInfo> getServerInformations() {
+        return copyAll(servers, InMemoryDAO::copyOf);
+    }
+
+    @Override
+    public ServerInfo getServerInformation(String host) {
+        ServerInfo serverInfo = servers.get(host);
+        return serverInfo != null ? copyOf(serverInfo) : null;
+    }
+
+    @Override
+    public boolean deleteServerInformation(String host) {
+        return remove(servers, host, () -> backend.deleteServerInformation(host));
+    }
+
+    @Override
+    public boolean saveServerInformation(ServerInfo serverInfo) {
+        ServerInfo copy = copyOf(serverInfo);
+        if (!insert(servers, copy.getHost(), copy, () -> backend.saveServerInformation(copy))) {
+            logger.error("Failed to persist object " + ServerInfo.class + " with host " + serverInfo.getHost() +
+                    ". An object with the same host already existed");
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean updateServerInformation(ServerInfo serverInfo) {
+        ServerInfo copy = copyOf(serverInfo);
+        return replace(servers, copy.getHost(), copy, () -> backend.updateServerInformation(copy));
+    }
+
+    // Changes for the backing DAO are submitted while the map entry is locked, so changes of the same entity reach the
+    // backing DAO in the same order in which they were applied in memory.
+    private <T> boolean insert(ConcurrentMap<String, T> entities, String key, T entity, BooleanSupplier change) {
+        return insert(entities, key, entity, change, InMemoryDAO::noIndex);
+    }
+
+    private <T> boolean insert(ConcurrentMap<String, T> entities, String key, T entity, BooleanSupplier change,
+                               BiConsumer<T, T> index) {
+        if (rejectedByFailedWriter()) {
+            return false;
+        }
+        AtomicReference<CompletableFuture<Void>> commit = new AtomicReference<>();
+        entities.compute(key, (k, existing) -> {
+            if (existing != null) {
+                return existing;
+            }
+            commit.set(writer.submit(change));
+            index.accept(null, entity);
+            return entity;
+        });
+        return commit.get() != null && awaitCommit(commit.get());
+    }
+
+    private <T> boolean replace(ConcurrentMap<String, T> entities, String key, T entity, BooleanSupplier change) {
+        return replace(entities, key, entity, change, InMemoryDAO::noIndex);
+    }
+
+    private <T> boolean replace(ConcurrentMap<String, T> entities, String key, T entity, BooleanSupplier change,
+                                BiConsumer<T, T> index) {
+        if (rejectedByFailedWriter()) {
+            return false;
+        }
+        AtomicReference<CompletableFuture<Void>> commit = new AtomicReference<>();
+        entities.computeIfPresent(key, (k, existing) -> {
+            commit.set(writer.submit(change));
+            index.accept(existing, entity);
+            return entity;
+        });
+        return commit.get() != null && awaitCommit(commit.get());
+    }
+
+    private <T> boolean remove(ConcurrentMap<String, T> entities, String key, BooleanSupplier change) {
+        return remove(entities, key, change, InMemoryDAO::noIndex);
+    }
+
+    private <T> boolean remove(ConcurrentMap<String, T> entities, String key, BooleanSupplier change,
+                               BiConsumer<T, T> index) {
+        if (rejectedByFailedWriter()) {
+            return false;
+        }
+        AtomicReference<CompletableFuture<Void>> commit = new AtomicReference<>();
+        entities.computeIfPresent(key, (k, existing) -> {
+            commit.set(writer.submit(change));
+            index.accept(existing, null);
+            return null;
+        });
+        return commit.get() != null && awaitCommit(commit.get());
+    }
+
+    // Index entries are updated while the ticket's map entry is locked. A query racing with a change may still see an
+    // id whose ticket is already gone, so ids are resolved against the ticket map.
+    private void indexTicket(TicketGrantMessage oldTicket, TicketGrantMessage newTicket) {
+        if (oldTicket != null) {
+            updateIndex(ticketsByCam, oldTicket.getCamIdentifier(), oldTicket.getId(), false);
+            updateIndex(ticketsByServer, oldTicket.getServerHost(), oldTicket.getId(), false);
+            for (String resourcePath : getResourcePaths(oldTicket)) {
+                updateIndex(ticketsByResource, resourcePath, oldTicket.getId(), false);
+            }
+        }
+        if (newTicket != null) {
+            updateIndex(ticketsByCam, newTicket.getCamIdentifier(), newTicket.getId(), true);
+            updateIndex(ticketsByServer, newTicket.getServerHost(), newTicket.getId(), true);
+            for (String resourcePath : getResourcePaths(newTicket)) {
+                updateIndex(ticketsByResource, resourcePath, newTicket.getId(), true);
+            }
+        }
+    }
+
+    private static void updateIndex(ConcurrentMap<String, Set<String>> index, String key, String ticketId,
+                                    boolean add) {
+        if (key == null) {
+            return;
+        }
+        index.compute(key, (k, ticketIds) -> {
+            if (add) {
+                Set<String> ids = ticketIds != null ? ticketIds : ConcurrentHashMap.newKeySet();
+                ids.add(ticketId);
+                return ids;
+            }
+            if (ticketIds != null) {
+                ticketIds.remove(ticketId);
+                return ticketIds.isEmpty() ? null : ticketIds;
+            }
+            return null;
+        });
+    }
+
+    private List<TicketGrantMessage> getIndexedTickets(ConcurrentMap<String, Set<String>> index, String key) {
+        Set<String> ticketIds = index.getOrDefault(key, Collections.emptySet());
+        return ticketIds.stream()
+                .map(tickets::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static Set<String> getResourcePaths(TicketGrantMessage ticket) {
+        if (ticket.getFace() == null || ticket.getFace().getSai() == null) {
+            return Collections.emptySet();
+        }
+        return ticket.getFace().getSai().stream()
+                .map(Authorization::getResourcePath)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private static <T> void noIndex(T oldEntity, T newEntity) {
+    }
+
+    private boolean rejectedByFailedWriter() {
+        if (writer.isFailed()) {
+            logger.error("Change rejected, the backing DAO failed before");
+            return true;
+        }
+        return false;
+    }
+
+    private boolean awaitCommit(CompletableFuture<Void> commit) {
+        if (!writer.getPolicy().waitsForCommit()) {
+            return true;
+        }
+
+        try {
+            commit.join();
+            return true;
+        } catch (CompletionException e) {
+            logger.error("Change was applied in memory but could not be committed to the backing DAO", e.getCause());
+            return false;
+        }
+    }
+
+    private static String getRevocationId(RevocationTicket revocationTicket) {
+        TicketGrantMessage ticket = revocationTicket.getTicket();
+        return ticket != null ? ticket.getId() : null;
+    }
+
+    private static TicketGrantMessage copyOf(TicketGrantMessage ticket) {
+        return new TicketGrantMessage(ticket.getId(), ticket.getFace(), ticket.getVerifier().getVerifier(),
+                ticket.getCamIdentifier(), ticket.getServerHost());
+    }
+
+    private static AccessRule copyOf(AccessRule accessRule) {
+        List<ServerAccessRule> serverAccessRules = new ArrayList<>();
+        for (ServerAccessRule serverAccessRule : accessRule.getServerAccessRules()) {
+            serverAccessRules.add(copyOf(serverAccessRule));
+        }
+        return new AccessRule(accessRule.getId(), accessRule.getCamIdentifier(), serverAccessRules,
+                accessRule.getExpirationTime());
+    }
+
+    private static ServerAccessRule copyOf(ServerAccessRule serverAccessRule) {
+        ServerInfo serverInfo = serverAccessRule.getServerInfo();
+        List<UpdateAttribute> updateAttributes = serverAccessRule.getUpdateAttributes();
+        return new ServerAccessRule(serverInfo != null ? copyOf(serverInfo) : null, serverAccessRule.getResource(),
+                serverAccessRule.getMethods(), updateAttributes != null ? new ArrayList<>(updateAttributes) : null);
+    }
+
+    private static CamInfo copyOf(CamInfo camInfo) {
+        return new CamInfo(camInfo.getId(), camInfo.getName());
+    }
+
+    private static ServerInfo copyOf(ServerInfo serverInfo) {
+        List<Resource> resources = serverInfo.getResources();
+        return new ServerInfo(serverInfo.getHost(), serverInfo.getPreSharedKey(), serverInfo.getSeqNumber(),
+                resources != null ? new ArrayList<>(resources) : null);
+    }
+
+    private static <T> List<T> copyAll(ConcurrentMap<String, T> entities, UnaryOperator<T> copy) {
+        return entities.values().stream().map(copy).collect(Collectors.toList());
+    }
+}
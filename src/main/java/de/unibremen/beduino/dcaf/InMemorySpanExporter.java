@@ -0,0 +1,51 @@
+package de.unibremen.beduino.dcaf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * {@link SpanExporter} which keeps the latest spans in memory, e.g. to evaluate them in the same process.
+ *
+ * @author Norman Lipkow
+ */
+public class InMemorySpanExporter implements SpanExporter {
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    private final int capacity;
+    private final Deque<Span> spans = new ArrayDeque<>();
+
+    public InMemorySpanExporter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of spans to keep, older spans are dropped
+     */
+    public InMemorySpanExporter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized void export(Span span) {
+        if (spans.size() == capacity) {
+            spans.removeFirst();
+        }
+        spans.addLast(span);
+    }
+
+    /**
+     * @return the kept spans in the order in which they ended
+     */
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    public synchronized void clear() {
+        spans.clear();
+    }
+}
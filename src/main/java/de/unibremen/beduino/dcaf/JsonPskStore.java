@@ -8,7 +8,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.eclipse.californium.scandium.dtls.pskstore.PskStore;
 import org.eclipse.californium.scandium.util.ServerNames;
@@ -22,17 +21,57 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Iterator;
-
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link PskStore} backed by the file keys.json. The keys are loaded once and kept in memory, indexed by identity and
+ * by peer address. Changes are written back to the file asynchronously; changes made while a write is pending are
+ * written together.
+ * <p>
+ * All authorization managers of a process share one instance, see {@link #getInstance()}.
+ */
 public class JsonPskStore implements PskStore {
 
     private static Logger logger = LoggerFactory.getLogger(JsonPskStore.class);
     private static final String KEY_PATH =  getCurrentDirectoryPath() + "keys.json";
+    private static JsonPskStore store;
 
     private final ObjectMapper jsonMapper = new ObjectMapper(new JsonFactory());
+    private final ConcurrentMap<String, PskEntry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, String> identitiesByPeer = new ConcurrentHashMap<>();
+    private final AtomicBoolean writePending = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PSK Store Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class PskEntry {
+        private final String psk;
+        private final InetSocketAddress peerAddress;
+
+        private PskEntry(String psk, InetSocketAddress peerAddress) {
+            this.psk = psk;
+            this.peerAddress = peerAddress;
+        }
+    }
 
-    JsonPskStore() {
+    private JsonPskStore() {
         createKeyFile();
+        load();
+    }
+
+    static synchronized JsonPskStore getInstance() {
+        if (store == null) {
+            store = new JsonPskStore();
+            Runtime.getRuntime().addShutdownHook(new Thread(store::flush, "PSK Store Shutdown"));
+        }
+        return store;
     }
 
     @Override
@@ -41,7 +80,14 @@ public class JsonPskStore implements PskStore {
         if (identity == null) {
             throw new NullPointerException("identity must not be null");
         } else {
-            return getKeyFromJson(readJsonKeyFile(), identity);
+            DcafEvents.PskLookup event = DcafEvents.beginPskLookup();
+            PskEntry entry = entries.get(identity);
+            if (event != null) {
+                event.identity = identity;
+                event.found = entry != null;
+                event.commit();
+            }
+            return entry != null ? entry.psk.getBytes() : null;
         }
     }
 
@@ -59,7 +105,7 @@ public class JsonPskStore implements PskStore {
 
     @Override
     public String getIdentity(final InetSocketAddress peerAddress) {
-        return getIdentityFromJsonByPeerAddress(readJsonKeyFile(), peerAddress);
+        return identitiesByPeer.get(peerAddress);
     }
 
     @Override
@@ -81,9 +127,13 @@ public class JsonPskStore implements PskStore {
 
         if (peerAddress == null) {
             throw new NullPointerException("peer address must not be null");
+        } else if (identity == null) {
+            throw new NullPointerException("identity must not be null");
+        } else if (key == null) {
+            throw new NullPointerException("key must not be null");
         } else {
-            setKey(identity, key);
-            setPeerAddressForIdentity(readJsonKeyFile(), peerAddress, identity);
+            putEntry(identity, new PskEntry(key, peerAddress));
+            persist();
         }
     }
 
@@ -104,8 +154,9 @@ public class JsonPskStore implements PskStore {
         } else if (key == null) {
             throw new NullPointerException("key must not be null");
         } else {
-            JsonNode jsonKeyNodes = readJsonKeyFile();
-            addIdentityAndKeyToJson(jsonKeyNodes, identity, key);
+            entries.compute(identity, (id, existing) ->
+                    new PskEntry(key, existing != null ? existing.peerAddress : null));
+            persist();
         }
     }
 
@@ -120,91 +171,96 @@ public class JsonPskStore implements PskStore {
         if (identity == null) {
             throw new NullPointerException("identity must not be null");
         } else {
-            JsonNode jsonKeyNodes = readJsonKeyFile();
-            deletePSKFromNode(jsonKeyNodes, identity);
+            PskEntry removed = entries.remove(identity);
+            if (removed != null) {
+                if (removed.peerAddress != null) {
+                    identitiesByPeer.remove(removed.peerAddress, identity);
+                }
+                persist();
+            }
         }
     }
 
-    private void setPeerAddressForIdentity(JsonNode jsonKeyNodes, InetSocketAddress peerAddress, String identity) {
-        if (jsonKeyNodes != null) {
-            JsonNode keys = jsonKeyNodes.get("keys");
-            if (keys instanceof ArrayNode) {
+    /**
+     * Writes all pending changes to the key file before returning.
+     */
+    void flush() {
+        writer.shutdown();
+        writeKeyFileIfPending();
+    }
 
-                for (int i = 0; i < keys.size(); i++) {
-                    JsonNode identityValue = keys.get(i).get("identity");
-                    if (identity.equals(identityValue.textValue())) {
-                        ObjectNode peerAddressNode = new JsonNodeFactory(false).objectNode();
-                        peerAddressNode.put("host", peerAddress.getHostString());
-                        peerAddressNode.put("port", peerAddress.getPort());
+    private void putEntry(String identity, PskEntry entry) {
+        PskEntry previous = entries.put(identity, entry);
+        if (previous != null && previous.peerAddress != null) {
+            identitiesByPeer.remove(previous.peerAddress, identity);
+        }
+        if (entry.peerAddress != null) {
+            identitiesByPeer.put(entry.peerAddress, identity);
+        }
+    }
 
-                        ((ObjectNode) keys.get(i)).set("peerAddress", peerAddressNode);
-                    }
-                }
-                writeNodeToJsonKeyFile(jsonKeyNodes);
+    private void persist() {
+        if (!writePending.getAndSet(true)) {
+            try {
+                writer.execute(this::writeKeyFileIfPending);
+            } catch (RuntimeException e) {
+                writeKeyFileIfPending();
             }
         }
     }
 
-    private void addIdentityAndKeyToJson(JsonNode jsonKeyNodes, final String identity, final String key) {
-        if (jsonKeyNodes != null) {
-            if (jsonKeyNodes instanceof NullNode) {
-                ObjectNode parentKeysNode = new JsonNodeFactory(false).objectNode();
-                ArrayNode arrayNode = new JsonNodeFactory(false).arrayNode();
-                parentKeysNode.set("keys", arrayNode);
-
-                arrayNode.add(createNewIdentityKeyObjectNode(identity, key));
-                jsonKeyNodes = parentKeysNode;
-            } else if (jsonKeyNodes instanceof ObjectNode && !jsonKeyNodes.has("keys")) {
-                ArrayNode arrayNode = new JsonNodeFactory(false).arrayNode();
-                ((ObjectNode)jsonKeyNodes).set("keys", arrayNode);
-
-                arrayNode.add(createNewIdentityKeyObjectNode(identity, key));
-            } else {
-                addIdentityKeyToExistingJsonFile(jsonKeyNodes, identity, key);
-            }
-            writeNodeToJsonKeyFile(jsonKeyNodes);
+    private synchronized void writeKeyFileIfPending() {
+        if (writePending.getAndSet(false)) {
+            writeNodeToJsonKeyFile(toJson());
         }
     }
 
-    private void addIdentityKeyToExistingJsonFile(JsonNode jsonKeyNodes, String identity, String key) {
+    private void load() {
+        JsonNode jsonKeyNodes = readJsonKeyFile();
+        if (jsonKeyNodes == null) {
+            return;
+        }
+
         JsonNode keys = jsonKeyNodes.get("keys");
         if (keys instanceof ArrayNode) {
-            boolean added = false;
-
             for (JsonNode identityKeyEntry : keys) {
-                JsonNode identityValue = identityKeyEntry.get("identity");
-                if (identity.equals(identityValue.textValue())) {
-                    ((ObjectNode) identityKeyEntry).put("psk", key);
-                    added = true;
-                    break;
+                JsonNode identity = identityKeyEntry.get("identity");
+                JsonNode psk = identityKeyEntry.get("psk");
+                if (identity == null || psk == null) {
+                    logger.warn("Skipping incomplete entry in key file " + KEY_PATH);
+                    continue;
                 }
-            }
-            if (!added) {
-                ((ArrayNode) keys).add(createNewIdentityKeyObjectNode(identity, key));
+
+                InetSocketAddress peerAddress = null;
+                JsonNode peerAddressNode = identityKeyEntry.get("peerAddress");
+                if (peerAddressNode != null && peerAddressNode.has("host") && peerAddressNode.has("port")) {
+                    // resolved once here instead of for every lookup
+                    peerAddress = new InetSocketAddress(peerAddressNode.get("host").asText(),
+                            peerAddressNode.get("port").asInt());
+                }
+                putEntry(identity.textValue(), new PskEntry(psk.textValue(), peerAddress));
             }
         }
+        logger.info("Loaded " + entries.size() + " pre-shared keys from " + KEY_PATH);
     }
 
-    private void deletePSKFromNode(JsonNode jsonKeyNodes, String identity) {
-        if (jsonKeyNodes != null) {
-            JsonNode keys = jsonKeyNodes.get("keys");
-            if (keys instanceof ArrayNode) {
-                boolean removed = false;
-
-                for (int i = 0; i < keys.size(); i++) {
-                    JsonNode identityValue = keys.get(i).get("identity");
-                    if (identity.equals(identityValue.textValue())) {
-                        ((ArrayNode) keys).remove(i);
-                        removed = true;
-                        break;
-                    }
-                }
-
-                if (removed) {
-                    writeNodeToJsonKeyFile(jsonKeyNodes);
-                }
+    private JsonNode toJson() {
+        JsonNodeFactory nodeFactory = new JsonNodeFactory(false);
+        ObjectNode parentKeysNode = nodeFactory.objectNode();
+        ArrayNode arrayNode = parentKeysNode.putArray("keys");
+
+        for (Map.Entry<String, PskEntry> entry : entries.entrySet()) {
+            ObjectNode newNode = createNewIdentityKeyObjectNode(entry.getKey(), entry.getValue().psk);
+            InetSocketAddress peerAddress = entry.getValue().peerAddress;
+            if (peerAddress != null) {
+                ObjectNode peerAddressNode = newNode.putObject("peerAddress");
+                peerAddressNode.put("host", peerAddress.getHostString());
+                peerAddressNode.put("port", peerAddress.getPort());
             }
+            arrayNode.add(newNode);
         }
+
+        return parentKeysNode;
     }
 
     private void writeNodeToJsonKeyFile(JsonNode jsonKeyNodes) {
@@ -229,49 +285,10 @@ public class JsonPskStore implements PskStore {
         return newNode;
     }
 
-
-    private static byte[] getKeyFromJson(JsonNode node, final String identity) {
-
-        if (node != null) {
-            JsonNode keys = node.get("keys");
-            if (keys instanceof ArrayNode) {
-                for (Iterator<JsonNode> it = keys.elements(); it.hasNext();) {
-                    JsonNode next = it.next();
-                    if (identity.equals(next.get("identity").textValue())) {
-                        return next.get("psk").textValue().getBytes();
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    private static String getIdentityFromJsonByPeerAddress(JsonNode node, final InetSocketAddress address) {
-
-        if (node != null) {
-            JsonNode keys = node.get("keys");
-            if (keys instanceof ArrayNode) {
-                for (Iterator<JsonNode> it = keys.elements(); it.hasNext();) {
-                    JsonNode next = it.next();
-                    InetSocketAddress current = new InetSocketAddress(next.get("peerAddress").get("host").textValue(),
-                            Integer.parseInt(next.get("peerAddress").get("port").textValue()));
-                    if (address.equals(current)) {
-                        return next.get("identity").textValue();
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     private JsonNode readJsonKeyFile() {
-        try {
-            JsonNode jsonNode = jsonMapper.readTree(new InputStreamReader(new FileInputStream(KEY_PATH), StandardCharsets.UTF_8));
-            if (jsonNode == null) {
-                return new JsonNodeFactory(false).nullNode();
-            }
-            return jsonNode;
-        }catch (FileNotFoundException e) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(KEY_PATH), StandardCharsets.UTF_8)) {
+            return jsonMapper.readTree(reader);
+        } catch (FileNotFoundException e) {
             logger.error("Failed to read json file", e);
         } catch (JsonProcessingException e) {
             logger.error("Error while trying to read json tree from key file", e);
@@ -0,0 +1,470 @@
+package de.unibremen.beduino.dcaf;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.eclipse.californium.core.coap.Response;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for a CAM/SAM pair, which are started in this process. A number of {@link LocalCoapClient}s, each
+ * with its own port and PSK identity, send access requests of a configurable mix at a fixed rate. The requests are
+ * sent on schedule regardless of outstanding responses, and latencies are measured from the scheduled time, so a
+ * saturated SAM shows up in the latencies instead of lowering the rate.
+ * <p>
+ * Every request carries its own sequence number as timestamp, so the CAM cannot coalesce concurrent requests into one
+ * request to SAM. The timestamps lie in the past, so the granted tickets are already expired and the CAM does not cache
+ * them either, i.e. every request reaches SAM, which also expires every ticket right away. With --same-requests, all
+ * requests of a type are identical and concurrent ones are coalesced, which measures the CAM rather than SAM. SAM's
+ * decision cache does not depend on the timestamp, run with -Ddcaf.decisionCache.maxSize=0 to evaluate the access rules
+ * for every request. The debug output of Californium limits the rate long before SAM does, so run with a logback
+ * configuration of level INFO or above.
+ * <p>
+ * With --trace, the spans of the measured requests are kept in memory and the durations of each hop are reported,
+ * see {@link Tracer}.
+ *
+ * @author Norman Lipkow
+ */
+public class LoadGenerator {
+    private static Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final String SERVER_HOST = "[2001:DB8::dcaf:1234]";
+    private static final String SERVER_KEY = "key";
+    private static final String CAM_IDENTIFIER = "127.0.0.1";
+    private static final String SAM_URL = "coaps://127.0.0.1/authorize";
+    private static final String RESOURCE = "/resource";
+    private static final String UPDATE_RESOURCE = "/update";
+    private static final String CLIENT_IDENTITY = "load-client-";
+    private static final String UPDATE_CERT_PATH = "src/main/resources/update_certs/mykey.jks";
+    private static final String UPDATE_CERT_PW = "tester";
+    private static final String UPDATE_CERT_ALIAS = "wadi";
+    private static final long RESPONSE_TIMEOUT = 11; // in seconds, longer than the timeout of LocalCoapClient
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final int clientCount;
+    private final int rate;
+    private final int warmup;
+    private final int duration;
+    private final int camPort;
+    private final int clientPort;
+    private final boolean integerKeys;
+    private final boolean sameRequests;
+    private final List<RequestType> mix;
+    private final int totalWeight;
+    private final InMemorySpanExporter spans;
+
+    private final List<LocalCoapClient> clients = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private ClientAuthorizationManager cam;
+    private RemoteServerAuthorizationManager sam;
+
+    /**
+     * A kind of access request in the mix, e.g. plain=80 or sai8=10 or update=10.
+     */
+    private static class RequestType {
+        private final String name;
+        private final int weight;
+        private final AccessRequest request;
+        private final Statistics statistics = new Statistics();
+
+        private RequestType(String name, int weight, AccessRequest request) {
+            this.name = name;
+            this.weight = weight;
+            this.request = request;
+        }
+
+        /**
+         * @return the request of this type with the given timestamp
+         */
+        private AccessRequest withTimestamp(long timestamp) {
+            return new AccessRequest(request.getSam(), request.getSai(), timestamp, request.getUpdateAttributes(),
+                    request.getSignature());
+        }
+    }
+
+    private static class Statistics {
+        private long[] latencies = new long[1024]; // in nanoseconds
+        private int count;
+        private int timeouts;
+        private final Map<String, Integer> responseCodes = new TreeMap<>();
+
+        private synchronized void add(long latency, Response response) {
+            if (response == null) {
+                timeouts++;
+                return;
+            }
+            addLatency(latency);
+            responseCodes.merge(response.getCode().toString(), 1, Integer::sum);
+        }
+
+        private synchronized void addLatency(long latency) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+        }
+
+        private synchronized void addAll(Statistics statistics) {
+            for (int i = 0; i < statistics.count; i++) {
+                addLatency(statistics.latencies[i]);
+            }
+            timeouts += statistics.timeouts;
+            statistics.responseCodes.forEach((code, n) -> responseCodes.merge(code, n, Integer::sum));
+        }
+
+        private synchronized String format() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            StringBuilder line = new StringBuilder(String.format("%8d %8d", count, timeouts));
+            for (double percentile : PERCENTILES) {
+                line.append(String.format(" %9.2f", toMillis(percentile(sorted, percentile))));
+            }
+            line.append(String.format(" %9.2f", toMillis(count > 0 ? sorted[count - 1] : 0)));
+            if (!responseCodes.isEmpty()) {
+                line.append("  ").append(responseCodes);
+            }
+            return line.toString();
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1)];
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+
+    private LoadGenerator(CommandLine commandLine) throws Exception {
+        clientCount = Integer.parseInt(commandLine.getOptionValue("clients", "10"));
+        rate = Integer.parseInt(commandLine.getOptionValue("rate", "100"));
+        warmup = Integer.parseInt(commandLine.getOptionValue("warmup", "5"));
+        duration = Integer.parseInt(commandLine.getOptionValue("duration", "30"));
+        camPort = Integer.parseInt(commandLine.getOptionValue("cam-port", "8002"));
+        clientPort = Integer.parseInt(commandLine.getOptionValue("client-port", "8100"));
+        integerKeys = commandLine.hasOption("integer-keys");
+        sameRequests = commandLine.hasOption("same-requests");
+        mix = parseMix(commandLine.getOptionValue("mix", "plain=100"));
+        totalWeight = mix.stream().mapToInt(type -> type.weight).sum();
+        spans = commandLine.hasOption("trace") ? new InMemorySpanExporter(Integer.MAX_VALUE) : null;
+        if (clientCount < 1 || rate < 1 || duration < 1 || warmup < 0 || totalWeight < 1) {
+            throw new IllegalArgumentException("clients, rate, duration and the mix weights have to be positive");
+        }
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("c").longOpt("clients").hasArg().argName("n")
+                .desc("number of DTLS clients, default 10").build());
+        options.addOption(Option.builder("r").longOpt("rate").hasArg().argName("requests/s")
+                .desc("requests per second of all clients together, default 100").build());
+        options.addOption(Option.builder("w").longOpt("warmup").hasArg().argName("s")
+                .desc("seconds of load before the measurement, default 5").build());
+        options.addOption(Option.builder("d").longOpt("duration").hasArg().argName("s")
+                .desc("seconds of measured load, default 30").build());
+        options.addOption(Option.builder("m").longOpt("mix").hasArg().argName("type=weight,...")
+                .desc("request mix of plain (one authorization), saiN (N authorizations) and update (signed " +
+                        "update attributes), default plain=100").build());
+        options.addOption(Option.builder("p").longOpt("cam-port").hasArg().argName("port")
+                .desc("port of the CAM, default 8002").build());
+        options.addOption(Option.builder("b").longOpt("client-port").hasArg().argName("port")
+                .desc("port of the first client, the others use the following ports, default 8100").build());
+        options.addOption(Option.builder("k").longOpt("integer-keys")
+                .desc("send access requests with CBOR integer keys").build());
+        options.addOption(Option.builder("s").longOpt("same-requests")
+                .desc("send identical requests of each type, so the CAM coalesces concurrent ones, by default " +
+                        "every request has its own timestamp").build());
+        options.addOption(Option.builder("t").longOpt("trace")
+                .desc("trace the requests and report the durations of each hop").build());
+        options.addOption(Option.builder("h").longOpt("help").desc("print this help").build());
+
+        LoadGenerator loadGenerator;
+        try {
+            CommandLine commandLine = new DefaultParser().parse(options, args);
+            if (commandLine.hasOption("help")) {
+                new HelpFormatter().printHelp(LoadGenerator.class.getSimpleName(), options);
+                return;
+            }
+            loadGenerator = new LoadGenerator(commandLine);
+        } catch (ParseException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp(LoadGenerator.class.getSimpleName(), options);
+            System.exit(1);
+            return;
+        } catch (Exception e) {
+            logger.error("Could not create the requests of the mix", e);
+            System.exit(1);
+            return;
+        }
+
+        try {
+            loadGenerator.start();
+            loadGenerator.run();
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while generating load", e);
+        } finally {
+            loadGenerator.stop();
+        }
+        System.exit(0);
+    }
+
+    private static List<RequestType> parseMix(String mix) throws Exception {
+        List<RequestType> types = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] nameAndWeight = entry.trim().split("=");
+            if (nameAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid entry " + entry + " in the request mix");
+            }
+            String name = nameAndWeight[0];
+            int weight = Integer.parseInt(nameAndWeight[1]);
+            if (name.equals("plain")) {
+                types.add(new RequestType(name, weight, plainRequest(1)));
+            } else if (name.startsWith("sai")) {
+                types.add(new RequestType(name, weight, plainRequest(Integer.parseInt(name.substring(3)))));
+            } else if (name.equals("update")) {
+                types.add(new RequestType(name, weight, updateRequest()));
+            } else {
+                throw new IllegalArgumentException("Unknown request type " + name + " in the request mix");
+            }
+        }
+        return types;
+    }
+
+    private static AccessRequest plainRequest(int authorizations) {
+        if (authorizations < 1) {
+            throw new IllegalArgumentException("A request needs at least one authorization");
+        }
+        List<Authorization> sai = new ArrayList<>();
+        for (int i = 0; i < authorizations; i++) {
+            sai.add(new Authorization("coaps://" + SERVER_HOST + RESOURCE + i, Method.GET.getBit()));
+        }
+        return new AccessRequest(SAM_URL, sai, 0, null, null);
+    }
+
+    /**
+     * @return a request for the update resource with update attributes signed like the ones of the update server
+     */
+    private static AccessRequest updateRequest() throws Exception {
+        JSONArray attributes = new JSONArray();
+        for (UpdateAttribute updateAttribute : updateAttributes()) {
+            JSONObject attribute = new JSONObject();
+            attribute.put("type", updateAttribute.getType());
+            if (updateAttribute.isGpio()) {
+                attribute.put("pin", String.valueOf(updateAttribute.getPin()));
+                attribute.put("port", String.valueOf(updateAttribute.getPort()));
+            } else {
+                attribute.put("method", updateAttribute.getMethod());
+                attribute.put("url", updateAttribute.getUrl());
+            }
+            attributes.put(attribute);
+        }
+        JSONObject attributesJson = new JSONObject();
+        attributesJson.put("attributes", attributes);
+        attributesJson.put("hash", "0123456789abcdef0123456789abcdef");
+        byte[] attributesBytes = attributesJson.toString().getBytes(StandardCharsets.UTF_8);
+
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream readStream = new FileInputStream(UPDATE_CERT_PATH)) {
+            keyStore.load(readStream, UPDATE_CERT_PW.toCharArray());
+        }
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign((PrivateKey) keyStore.getKey(UPDATE_CERT_ALIAS, UPDATE_CERT_PW.toCharArray()));
+        signer.update(attributesBytes);
+
+        List<Authorization> sai = new ArrayList<>();
+        sai.add(new Authorization("coaps://" + SERVER_HOST + UPDATE_RESOURCE, Method.PUT.getBit()));
+        return new AccessRequest(SAM_URL, sai, 0, Base64.getEncoder().encodeToString(attributesBytes),
+                Base64.getEncoder().encodeToString(signer.sign()));
+    }
+
+    private static List<UpdateAttribute> updateAttributes() {
+        List<UpdateAttribute> updateAttributes = new ArrayList<>();
+        updateAttributes.add(new UpdateAttribute("gpio_in", 12, 3, null, null));
+        updateAttributes.add(new UpdateAttribute("coap in", null, null, "GET", "/foo"));
+        return updateAttributes;
+    }
+
+    /**
+     * Grants the CAM access to all resources of the mix, then starts CAM, SAM and the clients.
+     */
+    private void start() {
+        if (spans != null) {
+            Tracer.getInstance().setExporter(spans);
+        }
+        int maxAuthorizations = mix.stream().mapToInt(type -> type.request.getSai().size()).max().orElse(1);
+        DAO dao = InMemoryDAO.getInstance();
+        if (dao.getClientAuthorizationManager(CAM_IDENTIFIER) == null) {
+            dao.saveClientAuthorizationManager(new CamInfo(CAM_IDENTIFIER, "cam"));
+        }
+        ServerInfo serverInfo = dao.getServerInformation(SERVER_HOST);
+        if (serverInfo == null) {
+            serverInfo = new ServerInfo(SERVER_HOST, SERVER_KEY, 0, new ArrayList<>());
+            dao.saveServerInformation(serverInfo);
+        }
+        for (int i = 0; i < maxAuthorizations; i++) {
+            saveRuleIfAbsent(dao, serverInfo, RESOURCE + i, Method.GET.getBit(), new ArrayList<>());
+        }
+        saveRuleIfAbsent(dao, serverInfo, UPDATE_RESOURCE, Method.PUT.getBit(), updateAttributes());
+
+        cam = new ClientAuthorizationManager(camPort);
+        cam.start();
+        // SAM indexes the rules when it is created
+        sam = new RemoteServerAuthorizationManager();
+        sam.start();
+
+        List<CompletableFuture<Response>> handshakes = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            String identity = CLIENT_IDENTITY + i;
+            String psk = "load-psk-" + i;
+            cam.addPsk(identity, psk);
+            LocalCoapClient client = new LocalCoapClient(clientPort + i, identity, psk, camPort);
+            client.setIntegerKeys(integerKeys);
+            clients.add(client);
+            // one request per client first, so the DTLS sessions exist before the load starts
+            handshakes.add(client.sendAccessRequest(nextRequest(mix.get(0)), camPort));
+        }
+        CompletableFuture.allOf(handshakes.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    private static void saveRuleIfAbsent(DAO dao, ServerInfo serverInfo, String resource, int methods,
+                                         List<UpdateAttribute> updateAttributes) {
+        String ruleId = "load" + resource.replace('/', '-');
+        if (dao.getAccessRule(ruleId) == null) {
+            AccessRule rule = new AccessRule(ruleId, CAM_IDENTIFIER);
+            rule.addRule(serverInfo, resource, methods, updateAttributes);
+            dao.saveAccessRule(rule);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * (warmup + duration);
+        long measured = (long) rate * warmup;
+        System.out.println("Sending " + total + " requests from " + clientCount + " clients at " + rate +
+                " requests/s, measuring the last " + duration + " s");
+
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long scheduled = start + i * interval;
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            RequestType type = pickType();
+            boolean record = i >= measured;
+            if (i == measured && spans != null) {
+                spans.clear();
+            }
+            pending.incrementAndGet();
+            clients.get((int) (i % clientCount)).sendAccessRequest(nextRequest(type), camPort)
+                    .whenComplete((response, e) -> {
+                        if (record) {
+                            type.statistics.add(System.nanoTime() - scheduled, e == null ? response : null);
+                        }
+                        pending.decrementAndGet();
+                    });
+        }
+        long sendingTime = System.nanoTime() - start;
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RESPONSE_TIMEOUT);
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        report(sendingTime);
+    }
+
+    private AccessRequest nextRequest(RequestType type) {
+        return sameRequests ? type.request : type.withTimestamp(sequence.incrementAndGet());
+    }
+
+    private RequestType pickType() {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (RequestType type : mix) {
+            value -= type.weight;
+            if (value < 0) {
+                return type;
+            }
+        }
+        return mix.get(mix.size() - 1);
+    }
+
+    private void report(long sendingTime) {
+        double seconds = sendingTime / 1e9;
+        Statistics total = new Statistics();
+        mix.forEach(type -> total.addAll(type.statistics));
+
+        System.out.println(String.format("Sent at %.1f requests/s, %d responses outstanding", rate * (warmup +
+                duration) / seconds, pending.get()));
+        System.out.println(String.format("Throughput %.1f responses/s", total.count / (double) duration));
+        System.out.println(String.format("%-8s %8s %8s %9s %9s %9s %9s %9s  %s", "type", "count", "timeouts",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "response codes"));
+        for (RequestType type : mix) {
+            System.out.println(String.format("%-8s %s", type.name, type.statistics.format()));
+        }
+        System.out.println(String.format("%-8s %s", "total", total.format()));
+
+        if (spans != null) {
+            reportSpans();
+        }
+    }
+
+    /**
+     * Reports the durations of the spans and the hop times of the spans started by a request from another hop.
+     */
+    private void reportSpans() {
+        Map<String, Statistics> spanStatistics = new TreeMap<>();
+        for (Span span : spans.getSpans()) {
+            spanStatistics.computeIfAbsent(span.getName(), name -> new Statistics())
+                    .addLatency(TimeUnit.MICROSECONDS.toNanos(span.getDuration()));
+            Object hop = span.getTags().get("hop.us");
+            if (hop instanceof Long) {
+                spanStatistics.computeIfAbsent(span.getName() + " hop", name -> new Statistics())
+                        .addLatency(TimeUnit.MICROSECONDS.toNanos((Long) hop));
+            }
+        }
+
+        System.out.println(String.format("%-20s %8s %8s %9s %9s %9s %9s %9s", "span", "count", "timeouts",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        spanStatistics.forEach((name, statistics) ->
+                System.out.println(String.format("%-20s %s", name, statistics.format())));
+    }
+
+    private void stop() {
+        clients.forEach(LocalCoapClient::destroy);
+        if (cam != null) {
+            cam.destroy();
+        }
+        if (sam != null) {
+            sam.destroy();
+        }
+    }
+}
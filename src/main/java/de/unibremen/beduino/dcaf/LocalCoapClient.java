@@ -2,6 +2,7 @@ package de.unibremen.beduino.dcaf;
 
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
 import org.eclipse.californium.core.coap.Request;
 import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.network.CoapEndpoint;
@@ -20,27 +21,65 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * DTLS client which sends access requests to a CAM. Every instance has its own endpoint and PSK identity, so several
+ * instances act as distinct clients, see {@link LoadGenerator}.
+ *
  * @author Norman Lipkow
  */
 public class LocalCoapClient {
 
     private static final int TIMEOUT = 10000;
-    private static final String CLIENT_IDENTITY = "client";
+    private static final String CLIENT_IDENTITY = "TEST_CLIENT";
     private static final String SECRET_PSK = "secretPSK";
     private static final String COAPS = "coaps://";
     private static final String LOCALHOST = "127.0.0.1";
+    private static final int CAM_PORT = 8002;
     private static Logger logger = LoggerFactory.getLogger(LocalCoapClient.class);
-    private static Endpoint dtlsEndpoint;
+    private static final ScheduledExecutorService TIMEOUT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "Client CAM Timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final Tracer tracer = Tracer.getInstance();
+    private Endpoint dtlsEndpoint;
+    private boolean integerKeys = Boolean.getBoolean(Utils.INTEGER_KEYS_PROPERTY);
 
     public LocalCoapClient(int port) {
-        initialize(port);
+        this(port, CLIENT_IDENTITY, SECRET_PSK, CAM_PORT);
+        EndpointManager.getEndpointManager().setDefaultEndpoint(dtlsEndpoint);
     }
 
     public LocalCoapClient() {
-        initialize(8000);
+        this(8000);
+    }
+
+    /**
+     * Creates a client which authenticates itself to the CAM on the local host with the given PSK.
+     *
+     * @param port     the local port of the client's endpoint
+     * @param identity the PSK identity of the client
+     * @param psk      the shared key, which has to be known to the CAM, see {@link AuthorizationManager#addPsk}
+     * @param camPort  the port of the CAM
+     */
+    public LocalCoapClient(int port, String identity, String psk, int camPort) {
+        initialize(port, identity, psk, camPort);
+    }
 
+    /**
+     * Selects the compact encoding, in which the DCAF keys of access requests are CBOR integers instead of text.
+     */
+    public void setIntegerKeys(boolean integerKeys) {
+        this.integerKeys = integerKeys;
     }
 
     public void testAccessRequestToCam(int camPort) {
@@ -58,43 +97,84 @@ public class LocalCoapClient {
     }
 
     private Response sendAccessRequest(List<Authorization> authorizations, int camPort) {
-
         AccessRequest accessRequest = new AccessRequest(COAPS + LOCALHOST + "/authorize", authorizations, 0, null, null);
 
-        Request request = new Request(CoAP.Code.POST);
-        request.setURI(COAPS + LOCALHOST + ":" + camPort + "/client-authorize");
-        Optional<byte[]> optionalBytes = Utils.serializeCbor(accessRequest);
+        try {
+            Response response = sendAccessRequest(accessRequest, camPort).get();
+            if (response == null) {
+                logger.error("Connection to CAM timed out, no response");
+                return new Response(CoAP.ResponseCode.BAD_GATEWAY);
+            }
+            return response;
+        } catch (InterruptedException | ExecutionException e) {
+            logger.error(e.getMessage());
+            return null;
+        }
+    }
 
-        if (optionalBytes.isPresent()) {
-            request.setPayload(optionalBytes.get());
-            request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+    /**
+     * Sends an access request to the CAM on the local host without waiting for the response.
+     *
+     * @param accessRequest the access request to send
+     * @param camPort       the port of the CAM
+     * @return the CAM's response, null if the CAM did not answer in time or the request failed
+     */
+    public CompletableFuture<Response> sendAccessRequest(AccessRequest accessRequest, int camPort) {
+        Optional<byte[]> optionalBytes = Utils.serializeCbor(accessRequest, integerKeys);
+        if (!optionalBytes.isPresent()) {
+            return CompletableFuture.completedFuture(new Response(CoAP.ResponseCode.BAD_REQUEST));
+        }
 
-            request.send(dtlsEndpoint);
+        Request request = new Request(CoAP.Code.POST);
+        request.setURI(COAPS + LOCALHOST + ":" + camPort + "/client-authorize");
+        request.setPayload(optionalBytes.get());
+        request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+        Span span = tracer.startSpan("client.request", null);
+        TraceContext traceContext = span.context();
+        if (traceContext != null) {
+            traceContext.addTo(request.getOptions());
+        }
 
-            Response response = null;
-            try {
-                response = request.waitForResponse(TIMEOUT);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
+        CompletableFuture<Response> camResponse = new CompletableFuture<>();
+        request.addMessageObserver(new MessageObserverAdapter() {
+            @Override
+            public void onResponse(Response response) {
+                camResponse.complete(response);
             }
 
-            if (response == null) {
-                logger.error("Connection to CAM timed out, no response");
-                return new Response(CoAP.ResponseCode.BAD_GATEWAY);
+            @Override
+            protected void failed() {
+                camResponse.complete(null);
+            }
+        });
+        ScheduledFuture<?> timeout = TIMEOUT_EXECUTOR.schedule(() -> {
+            if (camResponse.complete(null)) {
+                request.cancel();
             }
+        }, TIMEOUT, TimeUnit.MILLISECONDS);
+        camResponse.whenComplete((response, e) -> {
+            timeout.cancel(false);
+            span.tag("code", response != null ? response.getCode().toString() : "timeout").end();
+        });
 
-            return response;
-        }
+        request.send(dtlsEndpoint);
 
-        return null;
+        return camResponse;
     }
 
-    private void initialize(int port) {
+    /**
+     * Stops the client's endpoint and releases its port.
+     */
+    public void destroy() {
+        dtlsEndpoint.destroy();
+    }
+
+    private void initialize(int port, String identity, String psk, int camPort) {
         InetSocketAddress inetSocketAddress = new InetSocketAddress(port);
         DtlsConnectorConfig.Builder builder = new DtlsConnectorConfig.Builder();
 
         InMemoryPskStore pskStore = new InMemoryPskStore();
-        pskStore.addKnownPeer(new InetSocketAddress(LOCALHOST, 8002), "TEST_CLIENT", SECRET_PSK.getBytes());
+        pskStore.addKnownPeer(new InetSocketAddress(LOCALHOST, camPort), identity, psk.getBytes());
         builder.setPskStore(pskStore);
         builder.setAddress(inetSocketAddress);
         builder.setSniEnabled(false);
@@ -110,6 +190,5 @@ public class LocalCoapClient {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        EndpointManager.getEndpointManager().setDefaultEndpoint(dtlsEndpoint);
     }
 }
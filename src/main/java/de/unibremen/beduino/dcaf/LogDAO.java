@@ -0,0 +1,583 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured {@link DAO} backend. Every change is appended as a compact CBOR record (put or delete of one entity)
+ * to a segment file, so the cost of a write only depends on the size of the changed entity and not on the amount of
+ * stored data. The snapshot and the segments are replayed when entities are read, and a background task periodically
+ * folds the segment into a new snapshot.
+ * <p>
+ * Every record is framed by its length and a CRC32 of its content. Only an incomplete or damaged last record of the
+ * segment, as left by a crash during an append, is discarded. A damaged record anywhere else, or in the snapshot,
+ * is reported as an error instead of being skipped, so it is not compacted away.
+ * <p>
+ * Appended records are buffered until {@link #sync(boolean)} is called, which is done by the
+ * {@link GroupCommitWriter} after every batch of changes.
+ * <p>
+ * Records have put semantics, i.e. saving an existing id overwrites it. Checking for duplicates is left to the
+ * {@link InMemoryDAO} in front of this backend, which also serves all reads after startup.
+ *
+ * @author Norman Lipkow
+ */
+class LogDAO implements DAO {
+    private static Logger logger = LoggerFactory.getLogger(LogDAO.class);
+    private static final String SNAPSHOT = "dao.snapshot";
+    private static final String SEGMENT = "dao.log";
+    private static final String COMPACTING_SEGMENT = "dao.log.compacting";
+    private static final String TEMPORARY_SNAPSHOT = "dao.snapshot.tmp";
+    private static final long COMPACTION_THRESHOLD = 4 * 1024 * 1024; // in bytes
+    private static final int COMPACTION_CHECK_INTERVAL = 60; // in seconds
+    private static final int PUT = 0;
+    private static final int DELETE = 1;
+    private static final int FRAME_HEADER_LENGTH = 8; // length and CRC32 of the record
+    private static LogDAO dao;
+
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final Path snapshot;
+    private final Path segment;
+    private final Path compactingSegment;
+    private final Path temporarySnapshot;
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    private FileChannel segmentChannel;
+    private OutputStream segmentStream;
+
+    /**
+     * Entity types which can be stored in the log. The ordinal is part of the record format and must not change.
+     */
+    private enum RecordType {
+        TICKET,
+        ACCESS_RULE,
+        CAM,
+        REVOCATION,
+        SERVER
+    }
+
+    /**
+     * Callback for records read from the snapshot or a segment.
+     */
+    private interface RecordConsumer {
+        void accept(int operation, RecordType type, String key, byte[] payload);
+    }
+
+    LogDAO(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshot = directory.resolve(SNAPSHOT);
+        this.segment = directory.resolve(SEGMENT);
+        this.compactingSegment = directory.resolve(COMPACTING_SEGMENT);
+        this.temporarySnapshot = directory.resolve(TEMPORARY_SNAPSHOT);
+
+        if (Files.exists(compactingSegment)) {
+            logger.info("Finishing interrupted compaction of " + compactingSegment.toAbsolutePath());
+            writeSnapshot();
+        }
+        readRecords(snapshot, false, (operation, type, key, payload) -> { });
+        truncateIncompleteRecord(segment);
+        openSegment();
+    }
+
+    static synchronized LogDAO getInstance() {
+        if (dao == null) {
+            try {
+                Path directory = Paths.get(getCurrentDirectoryPath());
+                boolean initialized = Files.exists(directory.resolve(SNAPSHOT)) ||
+                        Files.exists(directory.resolve(SEGMENT));
+                dao = new LogDAO(directory);
+                if (!initialized) {
+                    dao.importFrom(FileDAO.getInstance());
+                    dao.sync(true);
+                }
+                dao.startCompactionTask();
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open the DAO log in " + getCurrentDirectoryPath(), e);
+            }
+        }
+        return dao;
+    }
+
+    /**
+     * Copies all entities of another DAO into this log, e.g. to migrate the json files of {@link FileDAO}.
+     *
+     * @param source the DAO to copy the entities from
+     */
+    void importFrom(DAO source) {
+        source.getServerInformations().forEach(this::saveServerInformation);
+        source.getClientAuthorizationManagers().forEach(this::saveClientAuthorizationManager);
+        source.getAccessRules().forEach(this::saveAccessRule);
+        source.getTickets().forEach(this::saveTicket);
+        source.getRevocationTickets().forEach(this::saveRevocationTicket);
+        logger.info("Imported existing entities into DAO log " + segment.toAbsolutePath());
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTickets() {
+        return getAll(RecordType.TICKET, TicketGrantMessage.class);
+    }
+
+    @Override
+    public TicketGrantMessage getTicket(String ticketId) {
+        return get(RecordType.TICKET, ticketId, TicketGrantMessage.class);
+    }
+
+    @Override
+    public boolean deleteTicket(String ticketId) {
+        return delete(RecordType.TICKET, ticketId);
+    }
+
+    @Override
+    public boolean saveTicket(TicketGrantMessage ticket) {
+        return put(RecordType.TICKET, ticket.getId(), ticket);
+    }
+
+    @Override
+    public boolean updateTicket(TicketGrantMessage ticket) {
+        return put(RecordType.TICKET, ticket.getId(), ticket);
+    }
+
+    @Override
+    public List<AccessRule> getAccessRules() {
+        return getAll(RecordType.ACCESS_RULE, AccessRule.class);
+    }
+
+    @Override
+    public AccessRule getAccessRule(String ruleId) {
+        return get(RecordType.ACCESS_RULE, ruleId, AccessRule.class);
+    }
+
+    @Override
+    public boolean deleteAccessRule(String accessRuleId) {
+        return delete(RecordType.ACCESS_RULE, accessRuleId);
+    }
+
+    @Override
+    public boolean saveAccessRule(AccessRule accessRule) {
+        return put(RecordType.ACCESS_RULE, accessRule.getId(), accessRule);
+    }
+
+    @Override
+    public boolean updateAccessRule(AccessRule accessRule) {
+        return put(RecordType.ACCESS_RULE, accessRule.getId(), accessRule);
+    }
+
+    @Override
+    public List<CamInfo> getClientAuthorizationManagers() {
+        return getAll(RecordType.CAM, CamInfo.class);
+    }
+
+    @Override
+    public CamInfo getClientAuthorizationManager(String camIdentifier) {
+        return get(RecordType.CAM, camIdentifier, CamInfo.class);
+    }
+
+    @Override
+    public boolean deleteClientAuthorizationManager(String camIdentifier) {
+        return delete(RecordType.CAM, camIdentifier);
+    }
+
+    @Override
+    public boolean saveClientAuthorizationManager(CamInfo camInfo) {
+        return put(RecordType.CAM, camInfo.getId(), camInfo);
+    }
+
+    @Override
+    public boolean updateClientAuthorizationManager(CamInfo camInfo) {
+        return put(RecordType.CAM, camInfo.getId(), camInfo);
+    }
+
+    @Override
+    public List<RevocationTicket> getRevocationTickets() {
+        return getAll(RecordType.REVOCATION, RevocationTicket.class);
+    }
+
+    @Override
+    public RevocationTicket getRevocationTicket(String revocationId) {
+        return get(RecordType.REVOCATION, revocationId, RevocationTicket.class);
+    }
+
+    @Override
+    public boolean deleteRevocationTicket(String revocationId) {
+        return delete(RecordType.REVOCATION, revocationId);
+    }
+
+    @Override
+    public boolean saveRevocationTicket(RevocationTicket revocationTicket) {
+        return revocationTicket.getTicket() != null &&
+                put(RecordType.REVOCATION, revocationTicket.getTicket().getId(), revocationTicket);
+    }
+
+    @Override
+    public boolean updateRevocationTicket(RevocationTicket revocationTicket) {
+        return saveRevocationTicket(revocationTicket);
+    }
+
+    @Override
+    public List<ServerInfo> getServerInformations() {
+        return getAll(RecordType.SERVER, ServerInfo.class);
+    }
+
+    @Override
+    public ServerInfo getServerInformation(String host) {
+        return get(RecordType.SERVER, host, ServerInfo.class);
+    }
+
+    @Override
+    public boolean deleteServerInformation(String host) {
+        return delete(RecordType.SERVER, host);
+    }
+
+    @Override
+    public boolean saveServerInformation(ServerInfo serverInfo) {
+        return put(RecordType.SERVER, serverInfo.getHost(), serverInfo);
+    }
+
+    @Override
+    public boolean updateServerInformation(ServerInfo serverInfo) {
+        return put(RecordType.SERVER, serverInfo.getHost(), serverInfo);
+    }
+
+    /**
+     * Writes all buffered records to the segment.
+     *
+     * @param force if true, the segment is also forced to disk
+     */
+    synchronized void sync(boolean force) throws IOException {
+        DcafEvents.DaoWrite event = DcafEvents.beginDaoWrite();
+        int bytes = pendingRecords.size();
+        if (bytes > 0) {
+            pendingRecords.writeTo(segmentStream);
+            pendingRecords.reset();
+        }
+        if (force) {
+            segmentChannel.force(false);
+        }
+        if (event != null && (bytes > 0 || force)) {
+            event.operation = "append";
+            event.bytes = bytes;
+            event.forced = force;
+            event.commit();
+        }
+    }
+
+    /**
+     * Folds the current segment into a new snapshot. Appends continue on a fresh segment while the snapshot is
+     * written.
+     */
+    void compact() {
+        try {
+            synchronized (this) {
+                // a segment left by a failed compaction must not be overwritten, it is folded in first
+                if (!Files.exists(compactingSegment)) {
+                    sync(true);
+                    segmentChannel.close();
+                    Files.move(segment, compactingSegment, StandardCopyOption.ATOMIC_MOVE);
+                    openSegment();
+                }
+            }
+            writeSnapshot();
+        } catch (IOException e) {
+            logger.error("Compaction of DAO log " + segment.toAbsolutePath() + " failed", e);
+        }
+    }
+
+    private void startCompactionTask() {
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DAO Log Compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduledExecutorService.scheduleWithFixedDelay(() -> {
+            if (segmentSize() > COMPACTION_THRESHOLD) {
+                compact();
+            }
+        }, COMPACTION_CHECK_INTERVAL, COMPACTION_CHECK_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private synchronized long segmentSize() {
+        try {
+            return segmentChannel.size();
+        } catch (IOException e) {
+            logger.error("Could not determine size of DAO log " + segment.toAbsolutePath(), e);
+            return 0;
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        DcafEvents.DaoWrite event = DcafEvents.beginDaoWrite();
+        Map<String, byte[]> entities = new LinkedHashMap<>();
+        RecordConsumer fold = (operation, type, key, payload) -> {
+            String entityKey = type.ordinal() + ":" + key;
+            if (operation == PUT) {
+                entities.put(entityKey, payload);
+            } else {
+                entities.remove(entityKey);
+            }
+        };
+        readRecords(snapshot, false, fold);
+        readRecords(compactingSegment, false, fold);
+
+        try (OutputStream out = Files.newOutputStream(temporarySnapshot)) {
+            for (Map.Entry<String, byte[]> entity : entities.entrySet()) {
+                String entityKey = entity.getKey();
+                int separator = entityKey.indexOf(':');
+                RecordType type = RecordType.values()[Integer.parseInt(entityKey.substring(0, separator))];
+                out.write(encodeRecord(PUT, type, entityKey.substring(separator + 1), entity.getValue()));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temporarySnapshot, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        synchronized (this) {
+            Files.move(temporarySnapshot, snapshot, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(compactingSegment);
+        }
+        if (event != null) {
+            event.end();
+        }
+        if (event != null && event.shouldCommit()) {
+            event.operation = "snapshot";
+            event.bytes = Files.size(snapshot);
+            event.forced = true;
+            event.commit();
+        }
+        logger.info("Compacted DAO log into snapshot with " + entities.size() + " entities");
+    }
+
+    private <T> List<T> getAll(RecordType type, Class<T> entityClass) {
+        List<T> entities = new ArrayList<>();
+        for (byte[] payload : replay(type).values()) {
+            Utils.deserializeCbor(payload, entityClass).ifPresent(entities::add);
+        }
+        return entities;
+    }
+
+    private <T> T get(RecordType type, String key, Class<T> entityClass) {
+        byte[] payload = replay(type).get(key);
+        if (payload == null) {
+            return null;
+        }
+        return Utils.deserializeCbor(payload, entityClass).orElse(null);
+    }
+
+    private synchronized Map<String, byte[]> replay(RecordType requestedType) {
+        DcafEvents.DaoRead event = DcafEvents.beginDaoRead();
+        Map<String, byte[]> entities = new LinkedHashMap<>();
+        RecordConsumer apply = (operation, type, key, payload) -> {
+            if (type != requestedType) {
+                return;
+            }
+            if (operation == PUT) {
+                entities.put(key, payload);
+            } else {
+                entities.remove(key);
+            }
+        };
+
+        long bytes;
+        try {
+            sync(false);
+            bytes = readRecords(snapshot, false, apply) + readRecords(compactingSegment, false, apply)
+                    + readRecords(segment, true, apply);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not replay the DAO log in " + segment.getParent().toAbsolutePath(),
+                    e);
+        }
+        if (event != null) {
+            event.bytes = bytes;
+            event.entityType = requestedType.name();
+            event.entities = entities.size();
+            event.commit();
+        }
+
+        return entities;
+    }
+
+    private boolean put(RecordType type, String key, Object entity) {
+        if (key == null) {
+            return false;
+        }
+
+        Optional<byte[]> payload = Utils.serializeCbor(entity);
+        if (!payload.isPresent()) {
+            logger.error("Could not serialize " + entity.getClass().getName() + " with id " + key);
+            return false;
+        }
+
+        return append(PUT, type, key, payload.get());
+    }
+
+    private boolean delete(RecordType type, String key) {
+        return key != null && append(DELETE, type, key, null);
+    }
+
+    private boolean append(int operation, RecordType type, String key, byte[] payload) {
+        try {
+            byte[] record = encodeRecord(operation, type, key, payload);
+            synchronized (this) {
+                pendingRecords.write(record);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("Error while appending to DAO log " + segment.toAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    private byte[] encodeRecord(int operation, RecordType type, String key, byte[] payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload != null ? payload.length + 64 : 64);
+        out.write(new byte[FRAME_HEADER_LENGTH]);
+        try (CBORGenerator generator = cborFactory.createGenerator(out)) {
+            generator.writeStartArray(payload != null ? 4 : 3);
+            generator.writeNumber(operation);
+            generator.writeNumber(type.ordinal());
+            generator.writeString(key);
+            if (payload != null) {
+                generator.writeBinary(payload);
+            }
+            generator.writeEndArray();
+        }
+
+        byte[] record = out.toByteArray();
+        int length = record.length - FRAME_HEADER_LENGTH;
+        ByteBuffer.wrap(record).putInt(length).putInt(checksum(record, FRAME_HEADER_LENGTH, length));
+        return record;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads all records of a file.
+     *
+     * @param incompleteTail if true, an incomplete or damaged last record, e.g. caused by a crash during an append,
+     *                       ends the replay. Otherwise it is an error like a damaged record before the end of the file.
+     * @return the number of bytes up to and including the last valid record
+     * @throws IOException if the file cannot be read or contains a damaged record
+     */
+    private long readRecords(Path file, boolean incompleteTail, RecordConsumer consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        long fileSize = Files.size(file);
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            while (validLength < fileSize) {
+                long remaining = fileSize - validLength;
+                int length = remaining >= FRAME_HEADER_LENGTH ? in.readInt() : -1;
+                if (length < 0 || length > remaining - FRAME_HEADER_LENGTH) {
+                    return incompleteRecord(file, validLength, incompleteTail);
+                }
+                int checksum = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully(record);
+
+                if (checksum(record, 0, length) != checksum) {
+                    if (validLength + FRAME_HEADER_LENGTH + length == fileSize) {
+                        return incompleteRecord(file, validLength, incompleteTail);
+                    }
+                    throw new IOException("Damaged record at offset " + validLength + " of " + file.toAbsolutePath());
+                }
+                decodeRecord(file, validLength, record, consumer);
+                validLength += FRAME_HEADER_LENGTH + length;
+            }
+        }
+
+        return validLength;
+    }
+
+    private static long incompleteRecord(Path file, long offset, boolean incompleteTail) throws IOException {
+        if (!incompleteTail) {
+            throw new IOException("Incomplete or damaged record at offset " + offset + " of " + file.toAbsolutePath());
+        }
+        logger.warn("Ignoring incomplete or damaged last record at offset " + offset + " of " + file.toAbsolutePath());
+        return offset;
+    }
+
+    private void decodeRecord(Path file, long offset, byte[] record, RecordConsumer consumer) throws IOException {
+        int operation;
+        RecordType type;
+        String key;
+        byte[] payload = null;
+        try (JsonParser parser = cborFactory.createParser(record)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected array");
+            }
+            operation = nextInt(parser);
+            type = RecordType.values()[nextInt(parser)];
+            parser.nextToken();
+            key = parser.getText();
+            if (parser.nextToken() == JsonToken.VALUE_EMBEDDED_OBJECT) {
+                payload = parser.getBinaryValue();
+                parser.nextToken();
+            }
+            if (parser.getCurrentToken() != JsonToken.END_ARRAY || parser.nextToken() != null) {
+                throw new IOException("Expected end of record");
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IOException("Malformed record at offset " + offset + " of " + file.toAbsolutePath(), e);
+        }
+
+        consumer.accept(operation, type, key, payload);
+    }
+
+    private static int nextInt(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+            throw new IOException("Expected integer in record");
+        }
+        return parser.getIntValue();
+    }
+
+    private void truncateIncompleteRecord(Path file) throws IOException {
+        long validLength = readRecords(file, true, (operation, type, key, payload) -> { });
+        if (Files.exists(file) && Files.size(file) > validLength) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentChannel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentStream = Channels.newOutputStream(segmentChannel);
+    }
+
+    private static String getCurrentDirectoryPath() {
+        return System.getProperty("user.dir") + System.getProperty("file.separator") + "dao/";
+    }
+}
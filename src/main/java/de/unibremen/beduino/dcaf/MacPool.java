@@ -0,0 +1,105 @@
+package de.unibremen.beduino.dcaf;
+
+import de.unibremen.beduino.dcaf.exceptions.MacFailedException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Keeps initialized {@link Mac} instances per server and {@link MacMethod}. For every combination a prototype is
+ * keyed once with the server's pre-shared key, further instances are cloned from it and returned to the pool after
+ * use, so computing a MAC needs neither a provider lookup nor a key setup.
+ *
+ * @author Norman Lipkow
+ */
+class MacPool {
+    private final Function<String, byte[]> keyLoader;
+    private final ConcurrentMap<String, ConcurrentMap<MacMethod, Pool>> pools = new ConcurrentHashMap<>();
+
+    private static class Pool {
+        private final Mac prototype;
+        private final Queue<Mac> idle = new ConcurrentLinkedQueue<>();
+
+        private Pool(Mac prototype) {
+            this.prototype = prototype;
+        }
+
+        private Mac borrow() throws CloneNotSupportedException {
+            Mac mac = idle.poll();
+            if (mac != null) {
+                return mac;
+            }
+            synchronized (prototype) {
+                return (Mac) prototype.clone();
+            }
+        }
+
+        private void release(Mac mac) {
+            idle.offer(mac);
+        }
+    }
+
+    /**
+     * @param keyLoader returns the pre-shared key for a server host
+     */
+    MacPool(Function<String, byte[]> keyLoader) {
+        this.keyLoader = keyLoader;
+    }
+
+    /**
+     * Computes the MAC of the input with the pre-shared key of the given server.
+     *
+     * @throws InvalidKeyException if the server's key was inappropriate to initialize the MAC
+     */
+    byte[] computeMac(String host, MacMethod macMethod, byte[] input) throws MacFailedException, InvalidKeyException {
+        Pool pool = getPool(host, macMethod);
+
+        Mac mac;
+        try {
+            mac = pool.borrow();
+        } catch (CloneNotSupportedException e) {
+            return Utils.computeMac(macMethod, keyLoader.apply(host), input);
+        }
+
+        byte[] result = mac.doFinal(input);
+        pool.release(mac);
+        return result;
+    }
+
+    /**
+     * Drops the instances keyed for the given server, e.g. because its key changed.
+     */
+    void invalidate(String host) {
+        pools.remove(host);
+    }
+
+    private Pool getPool(String host, MacMethod macMethod) throws MacFailedException, InvalidKeyException {
+        ConcurrentMap<MacMethod, Pool> hostPools = pools.computeIfAbsent(host, h -> new ConcurrentHashMap<>());
+        Pool pool = hostPools.get(macMethod);
+        if (pool == null) {
+            pool = new Pool(createPrototype(host, macMethod));
+            Pool existing = hostPools.putIfAbsent(macMethod, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    private Mac createPrototype(String host, MacMethod macMethod) throws MacFailedException, InvalidKeyException {
+        try {
+            Mac mac = Mac.getInstance(macMethod.getAlgorithmName());
+            mac.init(new SecretKeySpec(keyLoader.apply(host), macMethod.getAlgorithmName()));
+            return mac;
+        } catch (NoSuchAlgorithmException e) {
+            throw new MacFailedException(e);
+        }
+    }
+}
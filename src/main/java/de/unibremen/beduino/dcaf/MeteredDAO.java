@@ -0,0 +1,226 @@
+package de.unibremen.beduino.dcaf;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+
+/**
+ * {@link DAO} which times every operation of another DAO as {@code dcaf.dao.operation}, tagged with the operation
+ * and the class of the wrapped DAO.
+ *
+ * @author Norman Lipkow
+ */
+class MeteredDAO implements DAO {
+    private final DAO dao;
+
+    private final Timer getTickets;
+    private final Timer getTicket;
+    private final Timer deleteTicket;
+    private final Timer saveTicket;
+    private final Timer updateTicket;
+    private final Timer getTicketsByCamIdentifier;
+    private final Timer getTicketsByServerHost;
+    private final Timer getTicketsByResourcePath;
+    private final Timer getAccessRules;
+    private final Timer getAccessRule;
+    private final Timer deleteAccessRule;
+    private final Timer saveAccessRule;
+    private final Timer updateAccessRule;
+    private final Timer getClientAuthorizationManagers;
+    private final Timer getClientAuthorizationManager;
+    private final Timer deleteClientAuthorizationManager;
+    private final Timer saveClientAuthorizationManager;
+    private final Timer updateClientAuthorizationManager;
+    private final Timer getRevocationTickets;
+    private final Timer getRevocationTicket;
+    private final Timer deleteRevocationTicket;
+    private final Timer saveRevocationTicket;
+    private final Timer updateRevocationTicket;
+    private final Timer getServerInformations;
+    private final Timer getServerInformation;
+    private final Timer deleteServerInformation;
+    private final Timer saveServerInformation;
+    private final Timer updateServerInformation;
+
+    MeteredDAO(DAO dao) {
+        this.dao = dao;
+
+        getTickets = timer("getTickets");
+        getTicket = timer("getTicket");
+        deleteTicket = timer("deleteTicket");
+        saveTicket = timer("saveTicket");
+        updateTicket = timer("updateTicket");
+        getTicketsByCamIdentifier = timer("getTicketsByCamIdentifier");
+        getTicketsByServerHost = timer("getTicketsByServerHost");
+        getTicketsByResourcePath = timer("getTicketsByResourcePath");
+        getAccessRules = timer("getAccessRules");
+        getAccessRule = timer("getAccessRule");
+        deleteAccessRule = timer("deleteAccessRule");
+        saveAccessRule = timer("saveAccessRule");
+        updateAccessRule = timer("updateAccessRule");
+        getClientAuthorizationManagers = timer("getClientAuthorizationManagers");
+        getClientAuthorizationManager = timer("getClientAuthorizationManager");
+        deleteClientAuthorizationManager = timer("deleteClientAuthorizationManager");
+        saveClientAuthorizationManager = timer("saveClientAuthorizationManager");
+        updateClientAuthorizationManager = timer("updateClientAuthorizationManager");
+        getRevocationTickets = timer("getRevocationTickets");
+        getRevocationTicket = timer("getRevocationTicket");
+        deleteRevocationTicket = timer("deleteRevocationTicket");
+        saveRevocationTicket = timer("saveRevocationTicket");
+        updateRevocationTicket = timer("updateRevocationTicket");
+        getServerInformations = timer("getServerInformations");
+        getServerInformation = timer("getServerInformation");
+        deleteServerInformation = timer("deleteServerInformation");
+        saveServerInformation = timer("saveServerInformation");
+        updateServerInformation = timer("updateServerInformation");
+    }
+
+    private Timer timer(String operation) {
+        return Timer.builder("dcaf.dao.operation")
+                .description("Time spent in a DAO operation")
+                .tag("operation", operation)
+                .tag("dao", dao.getClass().getSimpleName())
+                .register(Metrics.globalRegistry);
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTickets() {
+        return getTickets.record(dao::getTickets);
+    }
+
+    @Override
+    public TicketGrantMessage getTicket(String ticketId) {
+        return getTicket.record(() -> dao.getTicket(ticketId));
+    }
+
+    @Override
+    public boolean deleteTicket(String ticketId) {
+        return deleteTicket.record(() -> dao.deleteTicket(ticketId));
+    }
+
+    @Override
+    public boolean saveTicket(TicketGrantMessage ticket) {
+        return saveTicket.record(() -> dao.saveTicket(ticket));
+    }
+
+    @Override
+    public boolean updateTicket(TicketGrantMessage ticket) {
+        return updateTicket.record(() -> dao.updateTicket(ticket));
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByCamIdentifier(String camIdentifier) {
+        return getTicketsByCamIdentifier.record(() -> dao.getTicketsByCamIdentifier(camIdentifier));
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByServerHost(String host) {
+        return getTicketsByServerHost.record(() -> dao.getTicketsByServerHost(host));
+    }
+
+    @Override
+    public List<TicketGrantMessage> getTicketsByResourcePath(String resourcePath) {
+        return getTicketsByResourcePath.record(() -> dao.getTicketsByResourcePath(resourcePath));
+    }
+
+    @Override
+    public List<AccessRule> getAccessRules() {
+        return getAccessRules.record(dao::getAccessRules);
+    }
+
+    @Override
+    public AccessRule getAccessRule(String ruleId) {
+        return getAccessRule.record(() -> dao.getAccessRule(ruleId));
+    }
+
+    @Override
+    public boolean deleteAccessRule(String accessRuleId) {
+        return deleteAccessRule.record(() -> dao.deleteAccessRule(accessRuleId));
+    }
+
+    @Override
+    public boolean saveAccessRule(AccessRule accessRule) {
+        return saveAccessRule.record(() -> dao.saveAccessRule(accessRule));
+    }
+
+    @Override
+    public boolean updateAccessRule(AccessRule accessRule) {
+        return updateAccessRule.record(() -> dao.updateAccessRule(accessRule));
+    }
+
+    @Override
+    public List<CamInfo> getClientAuthorizationManagers() {
+        return getClientAuthorizationManagers.record(dao::getClientAuthorizationManagers);
+    }
+
+    @Override
+    public CamInfo getClientAuthorizationManager(String camIdentifier) {
+        return getClientAuthorizationManager.record(() -> dao.getClientAuthorizationManager(camIdentifier));
+    }
+
+    @Override
+    public boolean deleteClientAuthorizationManager(String camIdentifier) {
+        return deleteClientAuthorizationManager.record(() -> dao.deleteClientAuthorizationManager(camIdentifier));
+    }
+
+    @Override
+    public boolean saveClientAuthorizationManager(CamInfo camInfo) {
+        return saveClientAuthorizationManager.record(() -> dao.saveClientAuthorizationManager(camInfo));
+    }
+
+    @Override
+    public boolean updateClientAuthorizationManager(CamInfo camInfo) {
+        return updateClientAuthorizationManager.record(() -> dao.updateClientAuthorizationManager(camInfo));
+    }
+
+    @Override
+    public List<RevocationTicket> getRevocationTickets() {
+        return getRevocationTickets.record(dao::getRevocationTickets);
+    }
+
+    @Override
+    public RevocationTicket getRevocationTicket(String revocationId) {
+        return getRevocationTicket.record(() -> dao.getRevocationTicket(revocationId));
+    }
+
+    @Override
+    public boolean deleteRevocationTicket(String revocationId) {
+        return deleteRevocationTicket.record(() -> dao.deleteRevocationTicket(revocationId));
+    }
+
+    @Override
+    public boolean saveRevocationTicket(RevocationTicket revocationTicket) {
+        return saveRevocationTicket.record(() -> dao.saveRevocationTicket(revocationTicket));
+    }
+
+    @Override
+    public boolean updateRevocationTicket(RevocationTicket revocationTicket) {
+        return updateRevocationTicket.record(() -> dao.updateRevocationTicket(revocationTicket));
+    }
+
+    @Override
+    public List<ServerInfo> getServerInformations() {
+        return getServerInformations.record(dao::getServerInformations);
+    }
+
+    @Override
+    public ServerInfo getServerInformation(String host) {
+        return getServerInformation.record(() -> dao.getServerInformation(host));
+    }
+
+    @Override
+    public boolean deleteServerInformation(String host) {
+        return deleteServerInformation.record(() -> dao.deleteServerInformation(host));
+    }
+
+    @Override
+    public boolean saveServerInformation(ServerInfo serverInfo) {
+        return saveServerInformation.record(() -> dao.saveServerInformation(serverInfo));
+    }
+
+    @Override
+    public boolean updateServerInformation(ServerInfo serverInfo) {
+        return updateServerInformation.record(() -> dao.updateServerInformation(serverInfo));
+    }
+}
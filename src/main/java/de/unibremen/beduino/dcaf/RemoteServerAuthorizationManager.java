@@ -1,5 +1,7 @@
 package de.unibremen.beduino.dcaf;
 
+import de.unibremen.beduino.dcaf.DcafMetrics.Stage;
+import de.unibremen.beduino.dcaf.exceptions.AttributesInvalidException;
 import de.unibremen.beduino.dcaf.exceptions.MacFailedException;
 import de.unibremen.beduino.dcaf.exceptions.ResourceNotFoundException;
 import org.apache.commons.codec.binary.Hex;
@@ -7,8 +9,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.eclipse.californium.core.CoapResource;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
-import org.eclipse.californium.core.coap.Request;
-import org.eclipse.californium.core.coap.Response;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.elements.RawData;
 import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
@@ -24,9 +24,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 /**
  * @author Norman Lipkow
@@ -34,19 +31,37 @@ import java.util.concurrent.TimeUnit;
 public class RemoteServerAuthorizationManager extends AuthorizationManager {
 
     private static Logger logger = LoggerFactory.getLogger(RemoteServerAuthorizationManager.class);
-    private static final int SERVER_TIMEOUT = 10000;
-    private static final String URI_PROTOCOL = "coap://";
     private static final String SAM_IDENTITY = "sam";
     private static final int LIFETIME = 60;
-    private static final int TICKET_CHECK_INTERVAL = 30; // in seconds
+    private static final String TICKET_EXPIRY_RESOLUTION_PROPERTY = "dcaf.ticket.expiryResolution";
+    private static final long DEFAULT_TICKET_EXPIRY_RESOLUTION = 1000; // in milliseconds
 
     private MacMethod macMethod = MacMethod.HMAC_SHA_256;
-    private DAO dao = FileDAO.getInstance();
+    private DAO dao = new MeteredDAO(InMemoryDAO.getInstance());
+    private Tracer tracer = Tracer.getInstance();
+    private AccessRuleIndex accessRuleIndex = new AccessRuleIndex(dao.getAccessRules());
+    private AuthorizationDecisionCache decisionCache = new AuthorizationDecisionCache();
+    private MacPool macPool = new MacPool(this::getPskFromServer);
+    private TicketExpiryScheduler expiryScheduler = new TicketExpiryScheduler(
+            Long.getLong(TICKET_EXPIRY_RESOLUTION_PROPERTY, DEFAULT_TICKET_EXPIRY_RESOLUTION), this::revokeTickets);
+    private RevocationDispatcher revocationDispatcher = new RevocationDispatcher(
+            revocationTicket -> dao.saveRevocationTicket(revocationTicket));
+
+    /**
+     * The result of handling a ticket request, which is reported to its span and JFR event.
+     */
+    private static class TicketRequestOutcome {
+        private String camIdentifier;
+        private int saiCount;
+        private int grantedCount;
+        // one of granted, denied, rejected or failed
+        private String decision = "rejected";
+    }
 
     public RemoteServerAuthorizationManager() {
         initializeResource();
         addDTLSEndpoint(5684, SAM_IDENTITY);
-        startTicketValidityCheckTask();
+        startTicketExpiryScheduler();
     }
 
     /**
@@ -66,6 +81,13 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         logger.info("SAM server running on " + getInterfaces() + ".");
     }
 
+    @Override
+    public synchronized void destroy() {
+        expiryScheduler.stop();
+        revocationDispatcher.stop();
+        super.destroy();
+    }
+
     /**
      * Returns all rules defined on the authorization manager.
      *
@@ -90,6 +112,8 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         rule.getServerAccessRules().get(0).setServerInfo(info);
 
         if (dao.getAccessRule(rule.getId()) == null && dao.saveAccessRule(rule)) {
+            accessRuleIndex.put(rule);
+            decisionCache.invalidateCam(rule.getCamIdentifier());
             logger.info("Added new access rule with id " + rule.getId());
             return true;
         }
@@ -103,7 +127,10 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
      * @param id The ID of the access rule to be deleted.
      */
     public void deleteAccessRule(String id) {
-        if (dao.deleteAccessRule(id)) {
+        AccessRule rule = dao.getAccessRule(id);
+        if (rule != null && dao.deleteAccessRule(id)) {
+            accessRuleIndex.remove(id);
+            decisionCache.invalidateCam(rule.getCamIdentifier());
             logger.info("Deleted access rule with id " + id);
         }
     }
@@ -116,9 +143,16 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
      * @param revoke If true, all tickets associated with the changes in the rule will be revoked.
      */
     public void updateAccessRule(AccessRule rule, boolean revoke) {
-        if (dao.getAccessRule(rule.getId()) == null) {
-            dao.saveAccessRule(rule);
+        AccessRule oldRule = dao.getAccessRule(rule.getId());
+        if (oldRule == null) {
+            if (dao.saveAccessRule(rule)) {
+                accessRuleIndex.put(rule);
+                decisionCache.invalidateCam(rule.getCamIdentifier());
+            }
         } else if (dao.updateAccessRule(rule)) {
+            accessRuleIndex.put(rule);
+            decisionCache.invalidateCam(oldRule.getCamIdentifier());
+            decisionCache.invalidateCam(rule.getCamIdentifier());
             logger.info("Updated access rule with id " + rule.getId());
         }
 
@@ -156,13 +190,12 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
     public void deleteCam(String id, boolean revoke) {
         if (dao.deleteClientAuthorizationManager(id)) {
             deleteAllAffectedAccessRulesByCamId(id);
+            decisionCache.invalidateCam(id);
             logger.info("Deleted CAM with id " + id);
 
             if (revoke) {
-                for (TicketGrantMessage ticket : dao.getTickets()) {
-                    if (id.equals(ticket.getCamIdentifier())) {
-                        revokeTicket(ticket.getId());
-                    }
+                for (TicketGrantMessage ticket : dao.getTicketsByCamIdentifier(id)) {
+                    revokeTicket(ticket.getId());
                 }
             }
         }
@@ -179,6 +212,7 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         if (dao.getClientAuthorizationManager(cam.getId()) == null) {
             dao.saveClientAuthorizationManager(cam);
         } else if (dao.updateClientAuthorizationManager(cam)) {
+            decisionCache.invalidateCam(cam.getId());
             logger.info("Updated CAM with id " + cam.getId());
         }
     }
@@ -219,6 +253,9 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
             dao.saveServerInformation(serverInfo);
         } else if (dao.updateServerInformation(serverInfo)) {
             addPsk(serverInfo.getHost(), serverInfo.getPreSharedKey());
+            decisionCache.invalidateServer(serverInfo.getHost());
+            macPool.invalidate(serverInfo.getHost());
+            AES.invalidate(serverInfo.getHost());
             logger.info("Updated Server with host address " + serverInfo.getHost());
         }
     }
@@ -234,13 +271,14 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         if (dao.deleteServerInformation(host)) {
             deleteAllAffectedAccessRulesByServerHost(host);
             deletePsk(host);
+            decisionCache.invalidateServer(host);
+            macPool.invalidate(host);
+            AES.invalidate(host);
             logger.info("Deleted Server with host address " + host);
 
             if (revoke) {
-                for (TicketGrantMessage ticket : dao.getTickets()) {
-                    if (host.equals(ticket.getServerHost())) {
-                        revokeTicket(ticket.getId());
-                    }
+                for (TicketGrantMessage ticket : dao.getTicketsByServerHost(host)) {
+                    revokeTicket(ticket.getId());
                 }
             }
         }
@@ -256,13 +294,8 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
     }
 
     private void revokeAffectedTickets(AccessRule rule) {
-        List<TicketGrantMessage> currentTickets = dao.getTickets();
-        String cam = rule.getCamIdentifier();
-
-        for (TicketGrantMessage ticket : currentTickets) {
-            if (cam.equals(ticket.getCamIdentifier())) {
-                revokeAllOfCamsAffectedTickets(rule, ticket);
-            }
+        for (TicketGrantMessage ticket : dao.getTicketsByCamIdentifier(rule.getCamIdentifier())) {
+            revokeAllOfCamsAffectedTickets(rule, ticket);
         }
     }
 
@@ -272,6 +305,7 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
                 if (!StringUtils.equals(authorization.getResourcePath(), serverRule.getResource()) ||
                         (authorization.getMethods() & serverRule.getMethods()) != authorization.getMethods()) {
                     revokeTicket(ticket.getId());
+                    return;
                 }
             }
         }
@@ -304,14 +338,34 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         return new CoapResource("authorize") {
             @Override
             public void handlePOST(CoapExchange exchange) {
+                Span span = tracer.startSpan("sam.authorize", TraceContext.fromOptions(exchange.getRequestOptions()));
+                DcafEvents.TicketRequest event = DcafEvents.beginTicketRequest();
+                TicketRequestOutcome outcome = new TicketRequestOutcome();
+                try {
+                    handleTicketRequest(exchange, outcome);
+                } finally {
+                    if (event != null) {
+                        event.camIdentifier = outcome.camIdentifier;
+                        event.saiCount = outcome.saiCount;
+                        event.grantedCount = outcome.grantedCount;
+                        event.decision = outcome.decision;
+                        event.commit();
+                    }
+                    span.tag("decision", outcome.decision).end();
+                }
+            }
+
+            private void handleTicketRequest(CoapExchange exchange, TicketRequestOutcome outcome) {
                 if (exchange.getRequestOptions().getContentFormat() != MediaTypeRegistry.APPLICATION_CBOR) {
                     exchange.respond(CoAP.ResponseCode.BAD_REQUEST);
                     return;
                 }
 
+                long start = System.nanoTime();
                 byte[] requestPayload = exchange.getRequestPayload();
                 /* Deserialize incoming requests from CBOR to Java Objects */
                 Optional<TicketRequestMessage> request = Utils.deserializeCbor(requestPayload, TicketRequestMessage.class);
+                start = DcafMetrics.recordStage(Stage.DECODE, start);
                 if (!request.isPresent()) {
                     logger.error("Deserialization of CBOR failed. The access request probably is malformed");
                     exchange.respond(CoAP.ResponseCode.BAD_REQUEST);
@@ -319,50 +373,69 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
                 }
 
                 TicketRequestMessage ticketRequestMessage = request.get();
+                outcome.saiCount = ticketRequestMessage.getSai() != null ? ticketRequestMessage.getSai().size() : 0;
+                boolean integerKeys = useIntegerKeys(requestPayload);
                 CamInfo camInfo = getCamInfoFromIdentifier(getClientIdentifier(exchange));
-
+                start = DcafMetrics.recordStage(Stage.CAM_LOOKUP, start);
 
                 if (camInfo == null) {
                     logger.error("Unknown Client information");
                     exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Unknown Client information");
                     return;
                 }
+                outcome.camIdentifier = camInfo.getId();
 
                 //if true, it's an update request and needs further checks
                 String updateHashEncrypted = null;
+                UpdateVerifier updateVerifier = new UpdateVerifier(ticketRequestMessage);
                 if (ticketRequestMessage.getSignature() != null && ticketRequestMessage.getUpdateAttributes() != null) {
-                    UpdateVerifier updateVerifier = new UpdateVerifier(ticketRequestMessage);
-
                     try {
                         if (!updateVerifier.verify()) {
+                            DcafMetrics.TICKETS_DENIED.increment();
+                            outcome.decision = "denied";
                             logger.error("Signature is invalid");
                             exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Signature is invalid");
                             return;
                         } else {
-                            byte[] psk = getPskFromServer(ticketRequestMessage.getSai().get(0).getHostURL());
+                            String host = ticketRequestMessage.getSai().get(0).getHostURL();
+                            byte[] psk = getPskFromServer(host);
 
                             try {
-                                updateHashEncrypted = AES.encrypt(new String(psk), updateVerifier.getHash());
+                                updateHashEncrypted = AES.encrypt(host, new String(psk), updateVerifier.getHash());
                             } catch (GeneralSecurityException e) {
                                 e.printStackTrace();
                             }
                         }
+                    } catch (AttributesInvalidException e) {
+                        DcafMetrics.TICKETS_DENIED.increment();
+                        outcome.decision = "denied";
+                        logger.error("Update attributes are invalid");
+                        exchange.respond(CoAP.ResponseCode.BAD_REQUEST, "Update attributes are invalid");
+                        return;
                     } catch (CertificateException | InvalidKeyException | SignatureException | KeyStoreException |
                             IOException | NoSuchAlgorithmException e) {
                         e.printStackTrace();
                     }
                 }
+                start = DcafMetrics.recordStage(Stage.UPDATE_VERIFICATION, start);
 
-                ticketRequestMessage = filterPermissions(camInfo, ticketRequestMessage);
+                ticketRequestMessage = filterPermissions(camInfo, ticketRequestMessage, updateVerifier);
+                start = DcafMetrics.recordStage(Stage.FILTER_PERMISSIONS, start);
 
                 if (ticketRequestMessage.getSai().size() == 0) {
+                    DcafMetrics.TICKETS_DENIED.increment();
+                    outcome.decision = "denied";
                     exchange.respond(CoAP.ResponseCode.CONTENT);
                 } else {
+                    outcome.grantedCount = ticketRequestMessage.getSai().size();
+                    outcome.decision = "failed";
                     Face face = new Face(ticketRequestMessage.getSai(), ticketRequestMessage.getTimestamp(), LIFETIME,
                             macMethod.getEncoding(), updateHashEncrypted);
+                    byte[] encodedFace = DcafCborCodec.encodeFace(face, integerKeys);
                     Verifier verifier;
                     try {
-                        verifier = generateVerifier(face);
+                        verifier = generateVerifier(face, encodedFace);
+                        start = DcafMetrics.recordStage(Stage.VERIFIER, start);
                     } catch (Exception e) {
                         logger.error("An unexpected error occurred while generating the verifier", e);
                         exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
@@ -378,6 +451,8 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
                         exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
                         return;
                     }
+                    start = DcafMetrics.recordStage(Stage.DAO_SAVE, start);
+                    expiryScheduler.schedule(ticketGrantMessage);
                     ticketGrantMessage.setCamIdentifier(null);
                     ticketGrantMessage.setServerHost(null);
 
@@ -387,9 +462,15 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
                             "until " + new Date(validUntil) + ".");
 
                     exchange.setMaxAge(ticketGrantMessage.getFace().getLifetime());
-                    Optional<byte[]> serializedTRM = Utils.serializeCbor(ticketGrantMessage);
-                    if (serializedTRM.isPresent()) {
-                        exchange.respond(CoAP.ResponseCode.CONTENT, serializedTRM.get());
+                    start = System.nanoTime();
+                    // the face is sent as it was encoded for the verifier
+                    byte[] serializedTGM = DcafCborCodec.encodeTicketGrantMessage(ticketGrantMessage, encodedFace,
+                            integerKeys);
+                    DcafMetrics.recordStage(Stage.ENCODE, start);
+                    if (serializedTGM != null) {
+                        DcafMetrics.TICKETS_GRANTED.increment();
+                        outcome.decision = "granted";
+                        exchange.respond(CoAP.ResponseCode.CONTENT, serializedTGM);
                     } else {
                         logger.error("Could not serialize object " + ticketGrantMessage.getClass().getName());
                         exchange.respond(CoAP.ResponseCode.INTERNAL_SERVER_ERROR);
@@ -409,60 +490,50 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         return serverInfo.getPreSharedKey().getBytes();
     }
 
-    private void startTicketValidityCheckTask() {
-        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-        scheduledExecutorService.scheduleAtFixedRate(new TicketValidityCheckTask(), 30, TICKET_CHECK_INTERVAL, TimeUnit.SECONDS);
+    private void startTicketExpiryScheduler() {
+        for (TicketGrantMessage ticket : dao.getTickets()) {
+            expiryScheduler.schedule(ticket);
+        }
+        expiryScheduler.start();
     }
 
+    /**
+     * Revokes expired tickets. Servers reject expired tickets themselves, so they are not informed.
+     */
+    private void revokeTickets(List<String> ids) {
+        DcafEvents.RevocationSweep event = DcafEvents.beginRevocationSweep();
+        for (String id : ids) {
+            revokeTicket(id, false);
+        }
+        if (event != null) {
+            event.tickets = ids.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Revokes a ticket and informs the server it is valid for. The server is informed asynchronously, see
+     * {@link RevocationDispatcher}; once it acknowledged the revocation, the revocation is saved with its delivery
+     * time.
+     *
+     * @param id the id of the ticket to revoke
+     */
     public void revokeTicket(String id) {
+        revokeTicket(id, true);
+    }
+
+    private void revokeTicket(String id, boolean informServer) {
+        expiryScheduler.unschedule(id);
         TicketGrantMessage ticketGrantMessage = dao.getTicket(id);
-        RevocationTicket revocationTicket = new RevocationTicket(ticketGrantMessage);
 
         if (ticketGrantMessage != null) {
             dao.deleteTicket(ticketGrantMessage.getId());
+            DcafMetrics.TICKETS_REVOKED.increment();
             logger.info("Ticket with id " + ticketGrantMessage.getId() + " is not valid anymore and was therefore revoked.");
-            //TODO: Still needs consensus on how sam should behave here. For now, tickets are only deleted on SAM
-            // when revoked.
-//            Response response = tryToInformServerAboutRevokedTicket(revocationTicket);
-//            if (response != null && response.getCode() == CoAP.ResponseCode.CONTENT) {
-//                long deliveryTime = System.currentTimeMillis() / 1000;
-//                revocationTicket.setDeliveryTime(deliveryTime);
-//                dao.saveRevocationTicket(revocationTicket);
-//            }
-        }
-    }
-
-    private Response tryToInformServerAboutRevokedTicket(RevocationTicket revocationTicket) {
-        Authorization authorization = revocationTicket.getTicket().getFace().getSai().get(0);
-        if (authorization == null) {
-            return null;
-        }
-
-        String serverHost = authorization.getHostURL();
-
-        Optional<byte[]> optionalRT = Utils.serializeCbor(revocationTicket);
-
-        if (optionalRT.isPresent()) {
-            Request request = new Request(CoAP.Code.POST);
-            request.setURI(URI_PROTOCOL + serverHost + "/revoke");
-            request.setPayload(optionalRT.get());
-            Response response;
-
-            try {
-                response = request.waitForResponse(SERVER_TIMEOUT);
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage());
-                return null;
-            }
-
-            if (response == null) {
-                logger.error("Connection to Server [" + serverHost + "] timed out, no response");
-                return new Response(CoAP.ResponseCode.BAD_GATEWAY);
+            if (informServer) {
+                revocationDispatcher.dispatch(new RevocationTicket(ticketGrantMessage));
             }
-
-            return response;
         }
-        return null;
     }
 
     private String getClientIdentifier(CoapExchange exchange) {
@@ -491,10 +562,8 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
             return false;
         }
 
-        AccessRule rule = getAccessRuleFromCamIdentifier(camIdentifier);
-        if (rule == null) {
-            rule = new AccessRule(id, camIdentifier);
-        }
+        AccessRule existingRule = getAccessRuleFromCamIdentifier(camIdentifier);
+        AccessRule rule = existingRule != null ? existingRule : new AccessRule(id, camIdentifier);
 
         Resource serverResource = getServerResourceFromPath(serverAccessRule.getResource(),
                 serverAccessRule.getServerInfo().getResources());
@@ -522,7 +591,13 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         serverAccessRule.setMethods(supportedMethods);
 
         rule.addRule(serverAccessRule);
-        dao.saveAccessRule(rule);
+        if (existingRule != null) {
+            dao.updateAccessRule(rule);
+        } else {
+            dao.saveAccessRule(rule);
+        }
+        accessRuleIndex.put(rule);
+        decisionCache.invalidateCam(camIdentifier);
 
         return true;
     }
@@ -538,13 +613,7 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
     }
 
     private boolean ruleIdAlreadyDefined(String id) {
-        for (AccessRule rule : dao.getAccessRules()) {
-            if (rule.getId().equals(id)) {
-                return true;
-            }
-        }
-
-        return false;
+        return dao.getAccessRule(id) != null;
     }
 
     private AccessRule getAccessRuleFromCamIdentifier(String identifier) {
@@ -558,27 +627,32 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
     }
 
     private CamInfo getCamInfoFromIdentifier(String identifier) {
-        for (CamInfo info : dao.getClientAuthorizationManagers()) {
-            if (info.getId().equals(identifier)) {
-                return info;
-            }
-        }
-        return null;
+        return dao.getClientAuthorizationManager(identifier);
     }
 
     /**
-     * @param face the the verifier should be generated for
+     * @param face        the the verifier should be generated for
+     * @param encodedFace the canonical encoding of the face, see {@link DcafCborCodec#encodeFace(Face, boolean)}
      * @return Verifier
      */
-    private Verifier generateVerifier(Face face) throws MacFailedException, InvalidKeyException {
-        Optional<byte[]> cborData = Utils.serializeCbor(face);
-
-        if (cborData.isPresent()) {
-            byte[] psk = getPskFromServer(face.getSai().get(0).getHostURL());
-
-            logger.debug("computeMac with payload: " + Hex.encodeHexString(cborData.get())
-                    + " and algorithm: " + face.getMacMethod().getAlgorithmName());
-            byte[] mac = Utils.computeMac(face.getMacMethod(), psk, cborData.get());
+    private Verifier generateVerifier(Face face, byte[] encodedFace) throws MacFailedException, InvalidKeyException {
+        if (encodedFace != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("computeMac with payload: " + Hex.encodeHexString(encodedFace)
+                        + " and algorithm: " + face.getMacMethod().getAlgorithmName());
+            }
+            DcafEvents.VerifierGeneration event = DcafEvents.beginVerifierGeneration();
+            String host = face.getSai().get(0).getHostURL();
+            byte[] mac = macPool.computeMac(host, face.getMacMethod(), encodedFace);
+            if (event != null) {
+                event.end();
+            }
+            if (event != null && event.shouldCommit()) {
+                event.serverHost = host;
+                event.macMethod = face.getMacMethod().name();
+                event.faceBytes = encodedFace.length;
+                event.commit();
+            }
 
             return new Verifier(mac);
         }
@@ -586,51 +660,54 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
         return new Verifier(new byte[]{});
     }
 
-    private TicketRequestMessage filterPermissions(CamInfo cam, TicketRequestMessage ticketRequestMessage) {
-        UpdateVerifier updateVerifier = new UpdateVerifier(ticketRequestMessage);
+    TicketRequestMessage filterPermissions(CamInfo cam, TicketRequestMessage ticketRequestMessage,
+                                           UpdateVerifier updateVerifier) {
+        List<Authorization> authorizations = decisionCache.getAuthorizations(cam.getId(), ticketRequestMessage.getSai(),
+                ticketRequestMessage.getUpdateAttributes(),
+                sai -> decide(cam, sai, ticketRequestMessage, updateVerifier));
+
+        return new TicketRequestMessage(ticketRequestMessage.getSamUrl(), authorizations,
+                ticketRequestMessage.getTimestamp(), ticketRequestMessage.getUpdateAttributes(),
+                ticketRequestMessage.getSignature());
+    }
+
+    private AuthorizationDecisionCache.Decision decide(CamInfo cam, List<Authorization> sai,
+                                                       TicketRequestMessage ticketRequestMessage,
+                                                       UpdateVerifier updateVerifier) {
         List<Authorization> authorizations = new ArrayList<>();
-        for (AccessRule accessRule : dao.getAccessRules()) {
-            if (!accessRule.getCamIdentifier().equals(cam.getId())) {
-                continue;
-            }
+        long now = System.currentTimeMillis();
+        // the decision changes when the first of the grants which are not applicable yet becomes applicable
+        long validUntil = Long.MAX_VALUE;
+        for (Authorization authorization : sai) {
+            List<AccessRuleIndex.Grant> grants = accessRuleIndex.getGrants(cam.getId(), authorization.getHostURL(),
+                    authorization.getResourcePath());
+            for (AccessRuleIndex.Grant grant : grants) {
+                if (0 < grant.getExpirationTime() - now) {
+                    validUntil = Math.min(validUntil, grant.getExpirationTime());
+                    continue;
+                }
 
-            if (0 < accessRule.getExpirationTime() - System.currentTimeMillis()) {
-                continue;
-            }
+                int methods = grant.getMethods() & authorization.getMethods();
+                if (methods == 0) {
+                    continue;
+                }
 
-            for (ServerAccessRule serverAccessRule : accessRule.getServerAccessRules()) {
-                for (Authorization authorization : ticketRequestMessage.getSai()) {
-                    if (!serverAccessRule.getServerHost().equals(authorization.getHostURL())) {
+                if (!grant.getUpdateAttributes().isEmpty()) {
+                    if (ticketRequestMessage.getUpdateAttributes() == null) {
                         continue;
                     }
 
-                    if (!serverAccessRule.getResource().equals(authorization.getResourcePath())) {
-                        continue;
-                    }
-                    int methods = serverAccessRule.getMethods() & authorization.getMethods();
-                    if (methods == 0) {
+                    if (!updateVerifier.attributesAllowed(grant.getUpdateAttributes())) {
                         continue;
                     }
-
-                    if (serverAccessRule.getUpdateAttributes() != null && !serverAccessRule.getUpdateAttributes().isEmpty()) {
-                        if (ticketRequestMessage.getUpdateAttributes() == null) {
-                            continue;
-                        }
-
-                        if (!updateVerifier.attributesAllowed(serverAccessRule.getUpdateAttributes())) {
-                            continue;
-                        }
-                    }
-
-                    Authorization auth = new Authorization(authorization.getUri(), methods);
-                    mergeOrAddMethodsIfAlreadyExistent(auth, authorizations);
                 }
+
+                Authorization auth = new Authorization(authorization.getUri(), methods);
+                mergeOrAddMethodsIfAlreadyExistent(auth, authorizations);
             }
         }
 
-
-        return new TicketRequestMessage(ticketRequestMessage.getSamUrl(), authorizations,
-                ticketRequestMessage.getTimestamp(), ticketRequestMessage.getUpdateAttributes(), ticketRequestMessage.getSignature());
+        return new AuthorizationDecisionCache.Decision(authorizations, validUntil);
     }
 
     private void mergeOrAddMethodsIfAlreadyExistent(Authorization authorization, List<Authorization> authorizations) {
@@ -643,20 +720,4 @@ public class RemoteServerAuthorizationManager extends AuthorizationManager {
 
         authorizations.add(authorization);
     }
-
-    private class TicketValidityCheckTask implements Runnable {
-
-        @Override
-        public void run() {
-            Thread.currentThread().setName("Ticket Validity Check");
-            List<TicketGrantMessage> tickets = dao.getTickets();
-            for (TicketGrantMessage ticket : tickets) {
-                Face face = ticket.getFace();
-                long currentTimeInSeconds = System.currentTimeMillis() / 1000;
-                if (currentTimeInSeconds - face.getTimestamp() > face.getLifetime()) {
-                    revokeTicket(ticket.getId());
-                }
-            }
-        }
-    }
 }
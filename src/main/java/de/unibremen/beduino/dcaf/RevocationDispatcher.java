@@ -0,0 +1,244 @@
+package de.unibremen.beduino.dcaf;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.coap.MessageObserverAdapter;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Informs resource servers about revoked tickets. Revocations are queued per server host and sent asynchronously,
+ * so revoking many tickets at once does not wait for the servers. Every batch interval, the pending revocations of a
+ * server are sent as one CoAP POST whose payload is a CBOR array of {@link RevocationTicket}s. A server has at most one
+ * batch in flight; a batch which is not acknowledged with a success code is sent again with exponential backoff,
+ * until it is given up after {@value #MAX_ATTEMPTS} attempts.
+ *
+ * @author Norman Lipkow
+ */
+class RevocationDispatcher {
+    private static Logger logger = LoggerFactory.getLogger(RevocationDispatcher.class);
+    static final String URI_PROPERTY = "dcaf.revocation.uri";
+    static final String BATCH_INTERVAL_PROPERTY = "dcaf.revocation.batchInterval";
+    static final String DEFAULT_URI = "coap://%s/revoke";
+    static final long DEFAULT_BATCH_INTERVAL = 1000; // in milliseconds
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long INITIAL_BACKOFF = 1000; // in milliseconds
+    private static final long MAX_BACKOFF = 60000; // in milliseconds
+    private static final long RESPONSE_TIMEOUT = 10000; // in milliseconds
+
+    private final String uriTemplate;
+    private final Endpoint endpoint;
+    private final Consumer<RevocationTicket> onDelivered;
+    private final Map<String, ServerQueue> queues = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Revocation Dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class ServerQueue {
+        private final Queue<RevocationTicket> pending = new ConcurrentLinkedQueue<>();
+        // only accessed by the dispatcher thread
+        private boolean inFlight;
+    }
+
+    /**
+     * Creates a dispatcher which sends to the URI given by the system property {@value URI_PROPERTY} with the
+     * interval given by {@value BATCH_INTERVAL_PROPERTY} (in milliseconds) on Californium's default endpoint.
+     *
+     * @param onDelivered called with every revocation a server acknowledged, after its delivery time was set
+     */
+    RevocationDispatcher(Consumer<RevocationTicket> onDelivered) {
+        this(System.getProperty(URI_PROPERTY, DEFAULT_URI),
+                Long.getLong(BATCH_INTERVAL_PROPERTY, DEFAULT_BATCH_INTERVAL), null, onDelivered);
+    }
+
+    /**
+     * @param uriTemplate   the URI of a server's revocation resource, {@code %s} is replaced with the server host
+     * @param batchInterval the interval in milliseconds in which pending revocations are sent
+     * @param endpoint      the endpoint to send from, null for Californium's default endpoint
+     * @param onDelivered   called with every revocation a server acknowledged, after its delivery time was set
+     */
+    RevocationDispatcher(String uriTemplate, long batchInterval, Endpoint endpoint,
+                         Consumer<RevocationTicket> onDelivered) {
+        if (batchInterval <= 0) {
+            throw new IllegalArgumentException("Batch interval must be positive");
+        }
+        this.uriTemplate = uriTemplate;
+        this.endpoint = endpoint;
+        this.onDelivered = onDelivered;
+        executor.scheduleWithFixedDelay(this::flush, batchInterval, batchInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a revocation for the server the ticket is valid for and returns immediately.
+     */
+    void dispatch(RevocationTicket revocationTicket) {
+        String host = getServerHost(revocationTicket.getTicket());
+        if (host == null) {
+            logger.warn("Revoked ticket names no server, the revocation is not delivered");
+            return;
+        }
+        queues.computeIfAbsent(host, h -> new ServerQueue()).pending.add(revocationTicket);
+    }
+
+    /**
+     * @return the number of revocations which were not handed to a server yet
+     */
+    int getPendingCount() {
+        return queues.values().stream().mapToInt(queue -> queue.pending.size()).sum();
+    }
+
+    /**
+     * Stops sending. Pending revocations are not delivered.
+     */
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private static String getServerHost(TicketGrantMessage ticket) {
+        if (ticket == null) {
+            return null;
+        }
+        if (ticket.getServerHost() != null) {
+            return ticket.getServerHost();
+        }
+        Face face = ticket.getFace();
+        if (face == null || face.getSai() == null || face.getSai().isEmpty()) {
+            return null;
+        }
+        return face.getSai().get(0).getHostURL();
+    }
+
+    private void flush() {
+        queues.forEach((host, queue) -> {
+            if (!queue.inFlight && !queue.pending.isEmpty()) {
+                try {
+                    sendNextBatch(host, queue);
+                } catch (RuntimeException e) {
+                    // must not escape, it would cancel the periodic flush for all servers
+                    logger.error("Error while sending revocations to server " + host, e);
+                    queue.inFlight = false;
+                }
+            }
+        });
+    }
+
+    private void sendNextBatch(String host, ServerQueue queue) {
+        List<RevocationTicket> batch = new ArrayList<>();
+        RevocationTicket revocationTicket;
+        while (batch.size() < MAX_BATCH_SIZE && (revocationTicket = queue.pending.poll()) != null) {
+            batch.add(revocationTicket);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Optional<byte[]> payload = Utils.serializeCbor(batch);
+        if (!payload.isPresent()) {
+            logger.error("Could not serialize " + batch.size() + " revocations for server " + host);
+            return;
+        }
+        queue.inFlight = true;
+        send(host, queue, batch, payload.get(), 1);
+    }
+
+    private void send(String host, ServerQueue queue, List<RevocationTicket> batch, byte[] payload, int attempt) {
+        Request request = Request.newPost();
+        request.setPayload(payload);
+        request.getOptions().setContentFormat(MediaTypeRegistry.APPLICATION_CBOR);
+
+        AtomicBoolean completed = new AtomicBoolean();
+        ScheduledFuture<?> timeout = executor.schedule(() -> {
+            if (completed.compareAndSet(false, true)) {
+                request.cancel();
+                retry(host, queue, batch, payload, attempt, "no response");
+            }
+        }, RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        request.addMessageObserver(new MessageObserverAdapter() {
+            @Override
+            public void onResponse(Response response) {
+                if (completed.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    executor.execute(() -> {
+                        if (CoAP.ResponseCode.isSuccess(response.getCode())) {
+                            delivered(host, queue, batch);
+                        } else {
+                            retry(host, queue, batch, payload, attempt, "response " + response.getCode());
+                        }
+                    });
+                }
+            }
+
+            @Override
+            protected void failed() {
+                if (completed.compareAndSet(false, true)) {
+                    timeout.cancel(false);
+                    executor.execute(() -> retry(host, queue, batch, payload, attempt, "sending failed"));
+                }
+            }
+        });
+
+        try {
+            request.setURI(String.format(uriTemplate, host));
+            if (endpoint != null) {
+                request.send(endpoint);
+            } else {
+                request.send();
+            }
+        } catch (RuntimeException e) {
+            if (completed.compareAndSet(false, true)) {
+                timeout.cancel(false);
+                retry(host, queue, batch, payload, attempt, e.getMessage());
+            }
+        }
+    }
+
+    private void delivered(String host, ServerQueue queue, List<RevocationTicket> batch) {
+        long deliveryTime = System.currentTimeMillis() / 1000;
+        for (RevocationTicket revocationTicket : batch) {
+            revocationTicket.setDeliveryTime(deliveryTime);
+            onDelivered.accept(revocationTicket);
+        }
+        logger.info("Delivered " + batch.size() + " revocations to server " + host);
+
+        queue.inFlight = false;
+        if (!queue.pending.isEmpty()) {
+            sendNextBatch(host, queue);
+        }
+    }
+
+    private void retry(String host, ServerQueue queue, List<RevocationTicket> batch, byte[] payload, int attempt,
+                       String reason) {
+        if (attempt >= MAX_ATTEMPTS) {
+            logger.error("Giving up delivering " + batch.size() + " revocations to server " + host + " after " +
+                    attempt + " attempts, last attempt: " + reason);
+            queue.inFlight = false;
+            return;
+        }
+
+        long backoff = Math.min(INITIAL_BACKOFF << (attempt - 1), MAX_BACKOFF);
+        logger.warn("Could not deliver " + batch.size() + " revocations to server " + host + " (" + reason +
+                "), retrying in " + backoff + " ms");
+        executor.schedule(() -> send(host, queue, batch, payload, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+    }
+}
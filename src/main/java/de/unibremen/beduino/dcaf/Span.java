@@ -0,0 +1,109 @@
+package de.unibremen.beduino.dcaf;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation of one hop of a trace. Spans of a disabled {@link Tracer} record nothing.
+ *
+ * @author Norman Lipkow
+ */
+public class Span {
+    static final Span NOOP = new Span(null, null, 0, 0, 0);
+
+    private final Tracer tracer;
+    private final String name;
+    private final long traceId;
+    private final long spanId;
+    private final long parentSpanId;
+    private final long start; // in microseconds since the epoch
+    private final long startNanos;
+    private final Map<String, Object> tags = new LinkedHashMap<>();
+    private long duration = -1; // in microseconds
+
+    Span(Tracer tracer, String name, long traceId, long spanId, long parentSpanId) {
+        this.tracer = tracer;
+        this.name = name;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.start = Tracer.epochMicros();
+        this.startNanos = System.nanoTime();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return the id of the span which caused this one, 0 for the first span of a trace
+     */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     * @return the start in microseconds since the epoch
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the duration in microseconds, -1 if the span has not ended
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public synchronized Map<String, Object> getTags() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+    }
+
+    /**
+     * @return the context to propagate to the next hop, null if the span is not recorded
+     */
+    TraceContext context() {
+        return tracer != null ? new TraceContext(traceId, spanId) : null;
+    }
+
+    Span tag(String key, Object value) {
+        if (tracer != null) {
+            synchronized (this) {
+                tags.put(key, value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ends the span and hands it to the exporter. Only the first call has an effect.
+     */
+    void end() {
+        if (tracer == null) {
+            return;
+        }
+        synchronized (this) {
+            if (duration >= 0) {
+                return;
+            }
+            duration = (System.nanoTime() - startNanos) / 1000;
+        }
+        tracer.export(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s trace=%016x span=%016x parent=%016x start=%d duration=%d %s", name, traceId, spanId,
+                parentSpanId, start, duration, getTags());
+    }
+}
@@ -0,0 +1,20 @@
+package de.unibremen.beduino.dcaf;
+
+/**
+ * Receives the spans of a {@link Tracer} when they end.
+ *
+ * @author Norman Lipkow
+ */
+public interface SpanExporter {
+
+    /**
+     * Called on the thread which ended the span, so implementations must not block.
+     */
+    void export(Span span);
+
+    /**
+     * Writes all spans which were not exported yet.
+     */
+    default void close() {
+    }
+}
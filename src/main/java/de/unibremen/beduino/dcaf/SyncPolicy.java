@@ -0,0 +1,25 @@
+package de.unibremen.beduino.dcaf;
+
+/**
+ * Defines when changes of the {@link InMemoryDAO} are forced to disk by the {@link GroupCommitWriter}.
+ *
+ * @author Norman Lipkow
+ */
+enum SyncPolicy {
+    /**
+     * Every batch of changes is synced before the callers return. Nothing which was acknowledged is lost on a crash.
+     */
+    EVERY_WRITE,
+    /**
+     * Changes are synced periodically. Callers do not wait, changes of the last interval can be lost on a crash.
+     */
+    INTERVAL,
+    /**
+     * Changes are handed to the operating system, which decides when they are written to disk.
+     */
+    OS_MANAGED;
+
+    boolean waitsForCommit() {
+        return this == EVERY_WRITE;
+    }
+}
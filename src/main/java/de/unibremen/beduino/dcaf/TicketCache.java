@@ -0,0 +1,138 @@
+package de.unibremen.beduino.dcaf;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tickets the CAM received from SAM, kept per client and requested authorizations until their face expires or the
+ * Max-Age of SAM's response runs out, whichever comes first. Requests with update attributes are never cached, since
+ * their tickets carry request specific data.
+ * <p>
+ * SAM does not notify the CAM of revocations, so a revoked ticket can still be handed out from the cache for up to the
+ * Max-Age of SAM's response.
+ *
+ * @author Norman Lipkow
+ */
+class TicketCache {
+    private static final String MAX_SIZE_PROPERTY = "dcaf.ticketCache.maxSize";
+    private static final long DEFAULT_MAX_SIZE = 10000;
+    private static final long MAX_EXPIRY = 1; // in hours, upper bound for tickets with a long lifetime
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final Cache<Key, CachedTicket> cache;
+
+    private static class Key {
+        private final String clientIdentity;
+        private final String samUrl;
+        private final Map<String, Integer> sai;
+        private final boolean integerKeys;
+
+        private Key(String clientIdentity, AccessRequest request, boolean integerKeys) {
+            Map<String, Integer> normalizedSai = new TreeMap<>();
+            for (Authorization authorization : request.getSai()) {
+                normalizedSai.merge(authorization.getUri(), authorization.getMethods(), (a, b) -> a | b);
+            }
+            this.clientIdentity = clientIdentity;
+            this.samUrl = request.getSam();
+            this.sai = Collections.unmodifiableMap(normalizedSai);
+            this.integerKeys = integerKeys;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null || this.getClass() != o.getClass()) {
+                return false;
+            }
+            Key oKey = (Key) o;
+            return Objects.equals(clientIdentity, oKey.clientIdentity) && Objects.equals(samUrl, oKey.samUrl) &&
+                    sai.equals(oKey.sai) && integerKeys == oKey.integerKeys;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(clientIdentity, samUrl, sai, integerKeys);
+        }
+    }
+
+    static class CachedTicket {
+        private final byte[] payload;
+        private final long expiresAt; // in milliseconds since the epoch
+
+        private CachedTicket(byte[] payload, long expiresAt) {
+            this.payload = payload;
+            this.expiresAt = expiresAt;
+        }
+
+        byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * @return the remaining validity in seconds
+         */
+        long getMaxAge() {
+            return TimeUnit.MILLISECONDS.toSeconds(expiresAt - System.currentTimeMillis());
+        }
+    }
+
+    TicketCache() {
+        this(Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * @param maxSize the maximum number of cached tickets
+     */
+    TicketCache(long maxSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(MAX_EXPIRY, TimeUnit.HOURS)
+                .recordStats()
+                .build();
+        GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "dcaf.cam.tickets",
+                "instance", String.valueOf(instances.incrementAndGet()));
+    }
+
+    static boolean isCacheable(AccessRequest request) {
+        return request.getUpdateAttributes() == null && request.getSignature() == null && request.getSai() != null;
+    }
+
+    /**
+     * @param integerKeys whether the ticket is sent with CBOR integer keys
+     * @return a ticket for the request which is valid for at least another second, or null
+     */
+    CachedTicket get(String clientIdentity, AccessRequest request, boolean integerKeys) {
+        Key key = new Key(clientIdentity, request, integerKeys);
+        CachedTicket ticket = cache.getIfPresent(key);
+        if (ticket != null && ticket.getMaxAge() < 1) {
+            cache.invalidate(key);
+            return null;
+        }
+        return ticket;
+    }
+
+    /**
+     * @param integerKeys whether the ticket is sent with CBOR integer keys
+     * @param ticket      the ticket SAM granted for the request, as it is sent to the client
+     * @param maxAge      the Max-Age of SAM's response in seconds, or null if it had none
+     */
+    void put(String clientIdentity, AccessRequest request, boolean integerKeys, TicketGrantView ticket, Long maxAge) {
+        long now = System.currentTimeMillis();
+        long expiresAt = TimeUnit.SECONDS.toMillis(ticket.getExpiresAt());
+        if (maxAge != null) {
+            expiresAt = Math.min(expiresAt, now + TimeUnit.SECONDS.toMillis(maxAge));
+        }
+        if (expiresAt > now) {
+            cache.put(new Key(clientIdentity, request, integerKeys),
+                    new CachedTicket(ticket.getPayload(), expiresAt));
+        }
+    }
+}
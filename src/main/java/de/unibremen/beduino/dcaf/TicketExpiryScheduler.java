@@ -0,0 +1,121 @@
+package de.unibremen.beduino.dcaf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps tickets ordered by the time they expire and hands the expired ones to a callback. Expiry times are rounded
+ * up to the tick resolution, so every tick only touches the tickets which are actually due and fires them as one
+ * batch. The expired tickets are handed to the callback outside of the scheduler's lock, so the callback may
+ * unschedule tickets itself.
+ *
+ * @author Norman Lipkow
+ */
+class TicketExpiryScheduler {
+    private static Logger logger = LoggerFactory.getLogger(TicketExpiryScheduler.class);
+
+    private final long tickResolution; // in milliseconds
+    private final Consumer<List<String>> onExpired;
+    private final NavigableMap<Long, Set<String>> ticketsByTick = new TreeMap<>();
+    private final Map<String, Long> ticksByTicket = new HashMap<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param tickResolution the interval in milliseconds in which expired tickets are collected
+     * @param onExpired      receives the ids of all tickets which expired since the last tick
+     */
+    TicketExpiryScheduler(long tickResolution, Consumer<List<String>> onExpired) {
+        if (tickResolution <= 0) {
+            throw new IllegalArgumentException("Tick resolution must be positive");
+        }
+        this.tickResolution = tickResolution;
+        this.onExpired = onExpired;
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Ticket Expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::tick, tickResolution, tickResolution, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Schedules a ticket to expire at the end of its lifetime. A ticket which was already scheduled is rescheduled.
+     */
+    void schedule(TicketGrantMessage ticket) {
+        Face face = ticket.getFace();
+        schedule(ticket.getId(), TimeUnit.SECONDS.toMillis(face.getTimestamp() + face.getLifetime()));
+    }
+
+    /**
+     * @param ticketId  the ticket to schedule
+     * @param expiresAt the time in milliseconds since the epoch at which the ticket is no longer valid
+     */
+    synchronized void schedule(String ticketId, long expiresAt) {
+        long tick = (expiresAt + tickResolution - 1) / tickResolution;
+        unschedule(ticketId);
+        ticketsByTick.computeIfAbsent(tick, t -> new HashSet<>()).add(ticketId);
+        ticksByTicket.put(ticketId, tick);
+    }
+
+    synchronized void unschedule(String ticketId) {
+        Long tick = ticksByTicket.remove(ticketId);
+        if (tick != null) {
+            Set<String> ticketIds = ticketsByTick.get(tick);
+            ticketIds.remove(ticketId);
+            if (ticketIds.isEmpty()) {
+                ticketsByTick.remove(tick);
+            }
+        }
+    }
+
+    private synchronized List<String> pollExpired() {
+        long currentTick = System.currentTimeMillis() / tickResolution;
+        List<String> expired = new ArrayList<>();
+        Map.Entry<Long, Set<String>> due;
+        while ((due = ticketsByTick.firstEntry()) != null && due.getKey() <= currentTick) {
+            ticketsByTick.pollFirstEntry();
+            for (String ticketId : due.getValue()) {
+                ticksByTicket.remove(ticketId);
+                expired.add(ticketId);
+            }
+        }
+        return expired;
+    }
+
+    private void tick() {
+        List<String> expired = pollExpired();
+        if (!expired.isEmpty()) {
+            try {
+                onExpired.accept(expired);
+            } catch (RuntimeException e) {
+                logger.error("Failed to revoke " + expired.size() + " expired tickets", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Read-only view of a CBOR encoded {@link TicketGrantMessage}. The payload is checked with a streaming parser for
+ * the structure a {@link TicketGrantMessage} is deserialized from, and only the values the CAM needs are extracted,
+ * so SAM's payload can be forwarded to the client unchanged.
+ *
+ * @author Norman Lipkow
+ */
+class TicketGrantView {
+    private static Logger logger = LoggerFactory.getLogger(TicketGrantView.class);
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+    private static final String ID = "id";
+    private static final String CAM = "cam";
+    private static final String SERVER = "server";
+
+    private final String ticketId;
+    private final long timestamp;
+    private final long lifetime;
+    private final byte[] payload;
+
+    private TicketGrantView(String ticketId, long timestamp, long lifetime, byte[] payload) {
+        this.ticketId = ticketId;
+        this.timestamp = timestamp;
+        this.lifetime = lifetime;
+        this.payload = payload;
+    }
+
+    /**
+     * @param ticket  a deserialized ticket grant message
+     * @param payload the payload the ticket is encoded in
+     */
+    TicketGrantView(TicketGrantMessage ticket, byte[] payload) {
+        this(ticket.getId(), ticket.getFace() != null ? ticket.getFace().getTimestamp() : 0,
+                ticket.getFace() != null ? ticket.getFace().getLifetime() : 0, payload);
+    }
+
+    /**
+     * Validates a CBOR encoded ticket grant message without deserializing it.
+     *
+     * @param payload the CBOR encoded ticket grant message
+     * @return a view of the payload or Optional.empty() if it is malformed
+     */
+    static Optional<TicketGrantView> parse(byte[] payload) {
+        try (JsonParser parser = CBOR_FACTORY.createParser(payload)) {
+            TicketGrantView view = parseTicketGrantMessage(parser, payload);
+            if (parser.nextToken() != null) {
+                throw new IOException("Trailing data after ticket grant message");
+            }
+            return Optional.of(view);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Malformed ticket grant message", e);
+            return Optional.empty();
+        }
+    }
+
+    private static TicketGrantView parseTicketGrantMessage(JsonParser parser, byte[] payload) throws IOException {
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+        String ticketId = null;
+        long[] face = null;
+        boolean hasVerifier = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case ID:
+                    ticketId = readNullableString(parser, value);
+                    break;
+                case DcafEncodingType.F:
+                    face = parseFace(parser, value);
+                    break;
+                case DcafEncodingType.V:
+                    expect(parser, value, JsonToken.VALUE_EMBEDDED_OBJECT);
+                    hasVerifier = true;
+                    break;
+                case CAM:
+                case SERVER:
+                    readNullableString(parser, value);
+                    break;
+                default:
+                    throw new IOException("Unknown field " + field + " in ticket grant message");
+            }
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+
+        if (face == null || !hasVerifier) {
+            throw new IOException("Ticket grant message without face or verifier");
+        }
+        return new TicketGrantView(ticketId, face[0], face[1], payload);
+    }
+
+    /**
+     * @return the timestamp and lifetime of the face
+     */
+    private static long[] parseFace(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_OBJECT);
+
+        long timestamp = 0;
+        long lifetime = 0;
+        String macMethod = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case DcafEncodingType.SAI:
+                    parseSai(parser, value);
+                    break;
+                case DcafEncodingType.TS:
+                    expect(parser, value, JsonToken.VALUE_NUMBER_INT);
+                    timestamp = parser.getLongValue();
+                    break;
+                case DcafEncodingType.L:
+                    expect(parser, value, JsonToken.VALUE_NUMBER_INT);
+                    lifetime = parser.getLongValue();
+                    break;
+                case DcafEncodingType.G:
+                    macMethod = readNullableString(parser, value);
+                    break;
+                case DcafEncodingType.UH:
+                    readNullableString(parser, value);
+                    break;
+                default:
+                    throw new IOException("Unknown field " + field + " in face");
+            }
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_OBJECT);
+
+        if (macMethod == null) {
+            throw new IOException("Face without MAC method");
+        }
+        MacMethod.valueOf(macMethod);
+        if (timestamp <= 0) {
+            // Face replaces a missing timestamp with the time it is created at
+            timestamp = System.currentTimeMillis() / 1000;
+        }
+        return new long[] { timestamp, lifetime };
+    }
+
+    private static void parseSai(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, token, JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+            expect(parser, parser.nextToken(), JsonToken.VALUE_STRING);
+            expect(parser, parser.nextToken(), JsonToken.VALUE_NUMBER_INT);
+            if (parser.getNumberType() != JsonParser.NumberType.INT) {
+                throw new IOException("Methods of an authorization out of range");
+            }
+            expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+        }
+        expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+    }
+
+    private static String readNullableString(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, token, JsonToken.VALUE_STRING);
+        return parser.getText();
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but found " + actual + " at " +
+                    parser.getCurrentLocation());
+        }
+    }
+
+    String getId() {
+        return ticketId;
+    }
+
+    /**
+     * @return the time the ticket expires at in seconds since the epoch
+     */
+    long getExpiresAt() {
+        return timestamp + lifetime;
+    }
+
+    /**
+     * @return the encoded ticket grant message
+     */
+    byte[] getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,73 @@
+package de.unibremen.beduino.dcaf;
+
+import org.eclipse.californium.core.coap.Option;
+import org.eclipse.californium.core.coap.OptionSet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Identifies a span across hops. The context is sent in the CoAP option {@value #OPTION_NUMBER}, which consists of
+ * the trace id, the id of the sending span and the time at which the request was sent, each as 8 byte big endian
+ * integer.
+ *
+ * @author Norman Lipkow
+ */
+final class TraceContext {
+    /**
+     * From the range for experimental use; the option is elective and safe to forward, so peers without tracing ignore
+     * it.
+     */
+    static final int OPTION_NUMBER = 65000;
+    private static final int OPTION_LENGTH = 24;
+
+    private final long traceId;
+    private final long spanId;
+    private final long sentAt; // in microseconds since the epoch, 0 if unknown
+
+    TraceContext(long traceId, long spanId) {
+        this(traceId, spanId, 0);
+    }
+
+    private TraceContext(long traceId, long spanId, long sentAt) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sentAt = sentAt;
+    }
+
+    long getTraceId() {
+        return traceId;
+    }
+
+    long getSpanId() {
+        return spanId;
+    }
+
+    long getSentAt() {
+        return sentAt;
+    }
+
+    /**
+     * @return the context sent with a request, null if the request has none or it is malformed
+     */
+    static TraceContext fromOptions(OptionSet options) {
+        for (Option option : options.getOthers()) {
+            if (option.getNumber() == OPTION_NUMBER && option.getLength() == OPTION_LENGTH) {
+                ByteBuffer value = ByteBuffer.wrap(option.getValue());
+                return new TraceContext(value.getLong(), value.getLong(), value.getLong());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the context to the options of a request which is about to be sent.
+     */
+    void addTo(OptionSet options) {
+        byte[] value = ByteBuffer.allocate(OPTION_LENGTH)
+                .putLong(traceId)
+                .putLong(spanId)
+                .putLong(Tracer.epochMicros())
+                .array();
+        options.addOption(new Option(OPTION_NUMBER, value));
+    }
+}
@@ -0,0 +1,124 @@
+package de.unibremen.beduino.dcaf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records the spans of ticket requests as they pass client, CAM and SAM. The context of a span is propagated to the
+ * next hop with the request, see {@link TraceContext}, so the spans of all hops share one trace id.
+ * <p>
+ * Tracing is disabled unless an exporter is set, either with {@link #setExporter} or with the system property
+ * {@value EXPORTER_PROPERTY}: {@code memory} keeps the latest spans in an {@link InMemorySpanExporter}, {@code file}
+ * appends them to the file given by {@value FILE_PROPERTY}, see {@link FileSpanExporter}.
+ *
+ * @author Norman Lipkow
+ */
+public class Tracer {
+    private static Logger logger = LoggerFactory.getLogger(Tracer.class);
+    private static final String EXPORTER_PROPERTY = "dcaf.trace.exporter";
+    private static final String FILE_PROPERTY = "dcaf.trace.file";
+    private static final String DEFAULT_FILE = "traces.jsonl";
+    private static final long BASE_MICROS = System.currentTimeMillis() * 1000;
+    private static final long BASE_NANOS = System.nanoTime();
+    private static Tracer tracer;
+
+    private volatile SpanExporter exporter;
+
+    private Tracer(SpanExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    public static synchronized Tracer getInstance() {
+        if (tracer == null) {
+            tracer = new Tracer(createExporter(System.getProperty(EXPORTER_PROPERTY, "none")));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> tracer.setExporter(null), "Tracer Shutdown"));
+        }
+        return tracer;
+    }
+
+    private static SpanExporter createExporter(String name) {
+        switch (name) {
+            case "none":
+                return null;
+            case "memory":
+                return new InMemorySpanExporter();
+            case "file":
+                String file = System.getProperty(FILE_PROPERTY,
+                        System.getProperty("user.dir") + System.getProperty("file.separator") + DEFAULT_FILE);
+                logger.info("Writing spans to " + file);
+                return new FileSpanExporter(file);
+            default:
+                logger.warn("Unknown span exporter " + name + ", tracing is disabled");
+                return null;
+        }
+    }
+
+    /**
+     * Replaces the exporter. The previous exporter is closed.
+     *
+     * @param exporter receives all spans from now on, null disables tracing
+     */
+    public void setExporter(SpanExporter exporter) {
+        SpanExporter previous;
+        synchronized (this) {
+            previous = this.exporter;
+            this.exporter = exporter;
+        }
+        if (previous != null && previous != exporter) {
+            previous.close();
+        }
+    }
+
+    public SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * Starts a span. If the parent was received from another hop, the span is tagged with {@code hop.us}, the time
+     * from sending the request until now, which includes the transfer, the DTLS record layer and the queuing on the
+     * receiving side. It is only meaningful if the clocks of both hops are in sync.
+     *
+     * @param parent the context of the span which caused this one, null to start a new trace
+     * @return the span, which records nothing if tracing is disabled
+     */
+    Span startSpan(String name, TraceContext parent) {
+        if (exporter == null) {
+            return Span.NOOP;
+        }
+
+        Span span;
+        if (parent == null) {
+            span = new Span(this, name, nextId(), nextId(), 0);
+        } else {
+            span = new Span(this, name, parent.getTraceId(), nextId(), parent.getSpanId());
+            if (parent.getSentAt() > 0) {
+                span.tag("hop.us", span.getStart() - parent.getSentAt());
+            }
+        }
+        return span;
+    }
+
+    void export(Span span) {
+        SpanExporter current = exporter;
+        if (current != null) {
+            current.export(span);
+        }
+    }
+
+    /**
+     * @return the current time in microseconds since the epoch
+     */
+    static long epochMicros() {
+        return BASE_MICROS + (System.nanoTime() - BASE_NANOS) / 1000;
+    }
+
+    private static long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
@@ -2,10 +2,12 @@ package de.unibremen.beduino.dcaf;
 
 import de.unibremen.beduino.dcaf.exceptions.AttributesInvalidException;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,9 +15,14 @@ import java.security.*;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 
 /**
+ * Verifies the signed update attributes of a ticket request. The attributes are decoded and parsed once when the
+ * verifier is created. Attributes which cannot be parsed are invalid, {@link #verify()} rejects them. The public key
+ * is loaded once from the key store and reloaded when the key store file changes.
+ *
  * @author Christopher Reusche
  */
 
@@ -24,33 +31,69 @@ class UpdateVerifier {
     private static final String CERT_PATH = "src/main/resources/update_certs/mykey.jks";
     private static final String CERT_PW = "tester";
     private static final String CERT_ALIAS = "wadi";
+    private static final long KEY_CHECK_INTERVAL = 1000; // in milliseconds
+    private static final ThreadLocal<Signature> SIGNERS = new ThreadLocal<>();
 
-    private String attributes;
+    private static PublicKey publicKey;
+    private static long publicKeyModified;
+    private static long publicKeyChecked;
+
+    private String attributesDecoded;
+    private JSONObject attributesAsJson;
+    private List<UpdateAttribute> updateAttributes;
+    private boolean attributesValid;
     private String signature;
 
     UpdateVerifier(TicketRequestMessage ticketRequestMessage) {
-        this.attributes = ticketRequestMessage.getUpdateAttributes();
+        this.attributesDecoded = decodeAttributes(ticketRequestMessage.getUpdateAttributes());
+        this.attributesAsJson = parseAttributes(attributesDecoded);
+        try {
+            this.updateAttributes = Collections.unmodifiableList(toUpdateAttributes(attributesAsJson));
+            this.attributesValid = true;
+        } catch (JSONException | NumberFormatException e) {
+            logger.warn("could not parse update attributes: " + e.getMessage());
+            this.updateAttributes = Collections.emptyList();
+        }
         this.signature = ticketRequestMessage.getSignature();
     }
 
+    /**
+     * @throws AttributesInvalidException if the attributes are malformed, e.g. lack the hash or have a non-numeric pin
+     */
     boolean verify() throws CertificateException, NoSuchAlgorithmException, IOException,
             KeyStoreException, SignatureException, InvalidKeyException {
 
         return checkAttributes(this.signature);
     }
 
-    private PublicKey getPublicKey() throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
-        KeyStore ks = KeyStore.getInstance("JKS");
-        InputStream readStream = new FileInputStream(CERT_PATH);
-        ks.load(readStream, CERT_PW.toCharArray());
-        PublicKey publicKey = ks.getCertificate(CERT_ALIAS).getPublicKey();
-        readStream.close();
+    private static synchronized PublicKey getPublicKey() throws KeyStoreException, IOException, CertificateException,
+            NoSuchAlgorithmException {
+        long now = System.currentTimeMillis();
+        if (publicKey != null && now - publicKeyChecked < KEY_CHECK_INTERVAL) {
+            return publicKey;
+        }
+        publicKeyChecked = now;
+
+        long modified = new File(CERT_PATH).lastModified();
+        if (publicKey == null || modified != publicKeyModified) {
+            KeyStore ks = KeyStore.getInstance("JKS");
+            try (InputStream readStream = new FileInputStream(CERT_PATH)) {
+                ks.load(readStream, CERT_PW.toCharArray());
+            }
+            publicKey = ks.getCertificate(CERT_ALIAS).getPublicKey();
+            publicKeyModified = modified;
+            logger.info("Loaded update signing key from " + CERT_PATH);
+        }
         return publicKey;
     }
 
     private static boolean verifySignature(byte[] data, PublicKey key, byte[] signature) throws NoSuchAlgorithmException,
             SignatureException, InvalidKeyException {
-        Signature signer = Signature.getInstance("SHA256withRSA");
+        Signature signer = SIGNERS.get();
+        if (signer == null) {
+            signer = Signature.getInstance("SHA256withRSA");
+            SIGNERS.set(signer);
+        }
         signer.initVerify(key);
         signer.update(data);
         boolean result = signer.verify(signature);
@@ -59,52 +102,58 @@ class UpdateVerifier {
         return result;
     }
 
-    private String getAttributesDecoded() {
-        String attributesDecoded = null;
-
-        if (this.attributes != null) {
-            try {
-                attributesDecoded = new String(Base64.getDecoder().decode(this.attributes));
-            } catch (IllegalArgumentException i) {
-                logger.warn("could not decode attributes with base64 decoder");
-                return null;
-            }
+    private static String decodeAttributes(String attributes) {
+        if (attributes == null) {
+            return null;
         }
 
-        return attributesDecoded;
+        try {
+            return new String(Base64.getDecoder().decode(attributes));
+        } catch (IllegalArgumentException i) {
+            logger.warn("could not decode attributes with base64 decoder");
+            return null;
+        }
     }
 
-    private JSONObject getAttributesAsJson() {
-        if (getAttributesDecoded() == null)
+    private static JSONObject parseAttributes(String attributesDecoded) {
+        if (attributesDecoded == null) {
             return null;
+        }
 
-        return new JSONObject(getAttributesDecoded());
+        try {
+            return new JSONObject(attributesDecoded);
+        } catch (JSONException e) {
+            logger.warn("could not parse attributes as json");
+            return null;
+        }
     }
 
-    public List<UpdateAttribute> getUpdateAttributes() {
+    private static List<UpdateAttribute> toUpdateAttributes(JSONObject attributesAsJson) {
         List<UpdateAttribute> updateAttributes = new ArrayList<>();
-        if (getAttributesAsJson() == null || getAttributesAsJson().isEmpty()) {
+        if (attributesAsJson == null || attributesAsJson.isEmpty()) {
             return updateAttributes;
         }
 
-        JSONArray attributesArray = getAttributesAsJson().getJSONArray("attributes");
+        JSONArray attributesArray = attributesAsJson.optJSONArray("attributes");
+        if (attributesArray == null) {
+            return updateAttributes;
+        }
 
         for (int i = 0; i < attributesArray.length(); i++) {
-            JSONObject array = getAttributesAsJson().getJSONArray("attributes").getJSONObject(1);
-
-            if (attributesArray.getJSONObject(i).has("type")) {
-                if (attributesArray.getJSONObject(i).getString("type").equals("gpio_in") ||
-                        attributesArray.getJSONObject(i).getString("type").equals("gpio_out")) {
-                    updateAttributes.add(new UpdateAttribute(attributesArray.getJSONObject(i).getString("type"),
-                            Integer.parseInt(attributesArray.getJSONObject(i).getString("pin")),
-                            Integer.parseInt(attributesArray.getJSONObject(i).getString("port")),
-                            null,null));
-                } else if (attributesArray.getJSONObject(i).getString("type").equals("coap in") ||
-                        attributesArray.getJSONObject(i).getString("type").equals("coap out")) {
-                    updateAttributes.add(new UpdateAttribute(attributesArray.getJSONObject(i).getString("type"),
-                            null,null,
-                            attributesArray.getJSONObject(i).getString("method"),
-                            attributesArray.getJSONObject(i).getString("url")));
+            JSONObject attribute = attributesArray.getJSONObject(i);
+
+            if (attribute.has("type")) {
+                String type = attribute.getString("type");
+                if (type.equals("gpio_in") || type.equals("gpio_out")) {
+                    updateAttributes.add(new UpdateAttribute(type,
+                            Integer.parseInt(attribute.getString("pin")),
+                            Integer.parseInt(attribute.getString("port")),
+                            null, null));
+                } else if (type.equals("coap in") || type.equals("coap out")) {
+                    updateAttributes.add(new UpdateAttribute(type,
+                            null, null,
+                            attribute.getString("method"),
+                            attribute.getString("url")));
                 }
             }
         }
@@ -112,12 +161,16 @@ class UpdateVerifier {
         return updateAttributes;
     }
 
+    public List<UpdateAttribute> getUpdateAttributes() {
+        return updateAttributes;
+    }
+
     public boolean attributesAllowed(List<UpdateAttribute> updateAttributes) {
-        if (getUpdateAttributes().isEmpty()) {
+        if (this.updateAttributes.isEmpty()) {
             return false;
         }
 
-        for (UpdateAttribute updateAttribute : getUpdateAttributes()) {
+        for (UpdateAttribute updateAttribute : this.updateAttributes) {
             if (!updateAttributes.contains(updateAttribute)) {
                 return false;
             }
@@ -127,24 +180,18 @@ class UpdateVerifier {
     }
 
     public String getHash() {
-        JSONObject attributesAsJson = getAttributesAsJson();
         return attributesAsJson != null ? attributesAsJson.getString("hash") : null;
     }
 
     private boolean checkAttributes(String signature) throws IOException, KeyStoreException,
             CertificateException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
 
-        if (getAttributesDecoded() == null) {
-            return false;
-        }
-
-        JSONObject attributesAsJson = getAttributesAsJson();
-
         if (attributesAsJson == null) {
             return false;
         }
 
-        if (!attributesAsJson.has("attributes") || !attributesAsJson.has("hash")) {
+        if (!attributesValid || !attributesAsJson.has("attributes") ||
+                !(attributesAsJson.opt("hash") instanceof String)) {
             throw new AttributesInvalidException();
         }
 
@@ -156,6 +203,6 @@ class UpdateVerifier {
             return false;
         }
 
-        return verifySignature(getAttributesDecoded().getBytes(), getPublicKey(), decodedSignature);
+        return verifySignature(attributesDecoded.getBytes(), getPublicKey(), decodedSignature);
     }
 }
@@ -1,8 +1,12 @@
 package de.unibremen.beduino.dcaf;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import de.unibremen.beduino.dcaf.exceptions.MacFailedException;
@@ -12,9 +16,13 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -27,6 +35,14 @@ public class Utils {
     private static Logger logger = LoggerFactory.getLogger(Utils.class);
     private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
     private static final ObjectMapper JSON_MAPPER = new ObjectMapper(new JsonFactory());
+    private static final ObjectWriter CBOR_INTEGER_KEY_WRITER =
+            CBOR_MAPPER.writer().withAttribute(DcafJsonSerializer.INTEGER_KEYS, Boolean.TRUE);
+    // Default of the endpoints for encoding DCAF keys as CBOR integers, see AuthorizationManager#setIntegerKeys
+    static final String INTEGER_KEYS_PROPERTY = "dcaf.cbor.integerKeys";
+    private static final String CBOR_CODEC_PROPERTY = "dcaf.cbor.codec";
+    // "dcaf" (de)serializes DCAF messages with DcafCborCodec, "jackson" uses Jackson for all types
+    private static final boolean DCAF_CBOR_CODEC =
+            !"jackson".equalsIgnoreCase(System.getProperty(CBOR_CODEC_PROPERTY, "dcaf"));
 
     /**
      * DCAF MediaType to answer with
@@ -69,7 +85,7 @@ public class Utils {
      *
      * @param macMethod {@see MacMethod} to use
      * @param key       Key to use
-     * @param face      Face to serialze and compute the MAC for
+     * @param face      Face to serialze in canonical CBOR and compute the MAC for
      * @return MAC
      * @throws MacFailedException  in case there was an error
      * @throws InvalidKeyException if the given key was inappropriate to initialize the MAC
@@ -79,10 +95,10 @@ public class Utils {
                                     final Face face)
             throws MacFailedException, InvalidKeyException {
 
-        Optional<byte[]> input = serializeCbor(face);
+        byte[] input = DcafCborCodec.encodeFace(face, false);
 
-        if (input.isPresent()) {
-            return computeMac(macMethod, key, input.get());
+        if (input != null) {
+            return computeMac(macMethod, key, input);
         }
         throw new MacFailedException();
     }
@@ -95,8 +111,28 @@ public class Utils {
      * @return Optional of serialized input or Optional.empty()
      */
     static <T> Optional<byte[]> serializeCbor(T object) {
+        return serializeCbor(object, false);
+    }
+
+    /**
+     * Serialize given object as CBOR
+     *
+     * @param object      to serialize
+     * @param integerKeys whether the DCAF keys of the object are encoded as CBOR integers instead of text
+     * @return Optional of serialized input or Optional.empty()
+     */
+    static <T> Optional<byte[]> serializeCbor(T object, boolean integerKeys) {
+        // faces are always encoded in canonical CBOR, since their verifier is computed on the encoding
+        if (DCAF_CBOR_CODEC || object instanceof Face || object instanceof TicketGrantMessage) {
+            byte[] encoded = DcafCborCodec.encode(object, integerKeys);
+            if (encoded != null) {
+                return Optional.of(encoded);
+            }
+        }
+
         try {
-            return Optional.of(CBOR_MAPPER.writeValueAsBytes(object));
+            return Optional.of(integerKeys ? CBOR_INTEGER_KEY_WRITER.writeValueAsBytes(object) :
+                    CBOR_MAPPER.writeValueAsBytes(object));
         } catch (IOException e) {
             return Optional.empty();
         }
@@ -110,6 +146,13 @@ public class Utils {
      * @return Optional of deserialized input or Optional.empty()
      */
     static <T> Optional<T> deserializeCbor(byte[] requestPayload, Class<T> valueType) {
+        if (DCAF_CBOR_CODEC) {
+            T decoded = DcafCborCodec.decode(requestPayload, valueType);
+            if (decoded != null) {
+                return Optional.of(decoded);
+            }
+        }
+
         try {
             return Optional.of(CBOR_MAPPER.readValue(requestPayload, valueType));
         } catch (IOException e) {
@@ -119,18 +162,19 @@ public class Utils {
     }
 
     static String cborPayloadToPrettyString(byte[] requestPayload) {
-        try {
-            JsonNode opt = CBOR_MAPPER.readTree(requestPayload);
-            transformDcafEncodingsToStringValues(opt);
-            return JSON_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(opt);
+        StringWriter json = new StringWriter();
+        try (JsonParser parser = CBOR_MAPPER.getFactory().createParser(requestPayload);
+             JsonGenerator generator = JSON_MAPPER.getFactory().createGenerator(json).useDefaultPrettyPrinter()) {
+            copyRenamingKeys(parser, generator, DcafEncodingType.registry);
         } catch (IOException e) {
             logger.error("Failed to parse payload", e);
             return null;
         }
+        return json.toString();
     }
 
     public static void initializeTestData() {
-        DAO dao = FileDAO.getInstance();
+        DAO dao = InMemoryDAO.getInstance();
 
         // Create Client Authorization Manager Info
         CamInfo camInfo = new CamInfo("/127.0.0.1:8002", "cam");
@@ -162,35 +206,54 @@ public class Utils {
     }
 
     public static void transformDcafEncodingsToStringValues(JsonNode node) {
-        for (String key : DcafEncodingType.registry.keySet()) {
-            changeKeyIfPresent(node, key);
-        }
+        renameKeys(node, DcafEncodingType.registry);
     }
 
     public static void transformStringValuesToDcafEncodings(JsonNode node) {
-        for (String key : DcafEncodingType.registry.values()) {
-            changeKeyIfPresent(node, key);
-        }
+        renameKeys(node, DcafEncodingType.registry.inverse());
     }
 
-    private static void changeKeyIfPresent(JsonNode node, String key) {
-        JsonNode value = node.findValue(key);
-        while (value != null) {
-            JsonNode parent = node.findParent(key);
-
-            if (parent instanceof ObjectNode) {
-                String newFieldname;
-                if (DcafEncodingType.registry.values().contains(key)) {
-                    newFieldname = DcafEncodingType.fromStringToEncoding(key);
-                } else {
-                    newFieldname = DcafEncodingType.toString(key);
-                }
-
-                ((ObjectNode) parent).set(newFieldname, value);
-                ((ObjectNode) parent).remove(key);
+    /**
+     * Copies all tokens of the parser to the generator in a single pass and renames the field names found in keys,
+     * e.g. {@link DcafEncodingType#registry} or its inverse.
+     *
+     * @param parser    parser to read the tokens from
+     * @param generator generator to write the tokens to
+     * @param keys      new field names indexed by the field names to replace
+     */
+    static void copyRenamingKeys(JsonParser parser, JsonGenerator generator, Map<String, String> keys)
+            throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            if (token == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                generator.writeFieldName(keys.getOrDefault(fieldName, fieldName));
+            } else {
+                generator.copyCurrentEvent(parser);
             }
+        }
+    }
 
-            value = node.findValue(key);
+    private static void renameKeys(JsonNode node, Map<String, String> keys) {
+        if (node instanceof ObjectNode) {
+            ObjectNode objectNode = (ObjectNode) node;
+            boolean renamed = false;
+            Map<String, JsonNode> fields = new LinkedHashMap<>();
+            for (Iterator<Map.Entry<String, JsonNode>> iterator = objectNode.fields(); iterator.hasNext();) {
+                Map.Entry<String, JsonNode> field = iterator.next();
+                String newFieldName = keys.get(field.getKey());
+                renamed |= newFieldName != null;
+                fields.put(newFieldName != null ? newFieldName : field.getKey(), field.getValue());
+                renameKeys(field.getValue(), keys);
+            }
+            if (renamed) {
+                objectNode.removeAll();
+                objectNode.setAll(fields);
+            }
+        } else if (node != null && node.isArray()) {
+            for (JsonNode element : node) {
+                renameKeys(element, keys);
+            }
         }
     }
 }
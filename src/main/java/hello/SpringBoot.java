@@ -150,12 +150,12 @@ public class SpringBoot {
         cam.start();
         cam.addPsk("TEST_CLIENT", "secretPSK");
 
+        Utils.initializeTestData();
         sam = new RemoteServerAuthorizationManager();
         sam.start();
 
         logger.info("CAM and SAM were set up");
 
-        Utils.initializeTestData();
         LocalCoapClient client = new LocalCoapClient();
         client.testAccessRequestToCam(8002);
         SpringApplication.run(SpringBoot.class, args);
@@ -0,0 +1,174 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link DcafCborCodec} with the Jackson serializers it replaces, with text and with integer keys.
+ *
+ * @author Norman Lipkow
+ */
+@RunWith(Parameterized.class)
+public class DcafCborCodecTest {
+    private static final String SAM = "coaps://sam.example/authorize";
+    private static final long TIMESTAMP = 1700000000L;
+
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    private final boolean integerKeys;
+    private final ObjectWriter jacksonWriter;
+
+    @Parameterized.Parameters(name = "integerKeys={0}")
+    public static List<Object[]> keyModes() {
+        return Arrays.asList(new Object[]{false}, new Object[]{true});
+    }
+
+    public DcafCborCodecTest(boolean integerKeys) {
+        this.integerKeys = integerKeys;
+        jacksonWriter = integerKeys ?
+                cborMapper.writer().withAttribute(DcafJsonSerializer.INTEGER_KEYS, Boolean.TRUE) : cborMapper.writer();
+    }
+
+    @Test
+    public void encodesAccessRequestLikeJackson() throws IOException {
+        AccessRequest request = new AccessRequest(SAM, sai(), TIMESTAMP, "{\"version\":2}", "c2lnbmF0dXJl");
+        byte[] encoded = DcafCborCodec.encode(request, integerKeys);
+        assertArrayEquals(jacksonWriter.writeValueAsBytes(request), encoded);
+
+        AccessRequest decoded = DcafCborCodec.decode(encoded, AccessRequest.class);
+        assertEquals(SAM, decoded.getSam());
+        assertEquals(sai().size(), decoded.getSai().size());
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+        assertEquals("{\"version\":2}", decoded.getUpdateAttributes());
+        assertEquals("c2lnbmF0dXJl", decoded.getSignature());
+        assertRoundTrip(encoded, AccessRequest.class);
+    }
+
+    @Test
+    public void encodesTicketRequestMessageLikeJackson() throws IOException {
+        TicketRequestMessage request = new TicketRequestMessage(SAM, sai(), TIMESTAMP, null, null);
+        byte[] encoded = DcafCborCodec.encode(request, integerKeys);
+        assertArrayEquals(jacksonWriter.writeValueAsBytes(request), encoded);
+
+        TicketRequestMessage decoded = DcafCborCodec.decode(encoded, TicketRequestMessage.class);
+        assertEquals(SAM, decoded.getSamUrl());
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+        assertNull(decoded.getUpdateAttributes());
+        assertNull(decoded.getSignature());
+        assertRoundTrip(encoded, TicketRequestMessage.class);
+    }
+
+    /**
+     * Faces are written in canonical CBOR, so only their data model has to match the one Jackson writes.
+     */
+    @Test
+    public void encodesFaceCanonically() throws IOException {
+        Face face = face();
+        byte[] encoded = DcafCborCodec.encode(face, integerKeys);
+        assertArrayEquals(DcafCborCodec.encodeFace(face, integerKeys), encoded);
+        // a map of definite length
+        assertEquals(0xa5, encoded[0] & 0xff);
+        assertEquals(cborMapper.readTree(jacksonWriter.writeValueAsBytes(face)), cborMapper.readTree(encoded));
+
+        Face decoded = DcafCborCodec.decode(encoded, Face.class);
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+        assertEquals(3600, decoded.getLifetime());
+        assertEquals(MacMethod.HMAC_SHA_256, decoded.getMacMethod());
+        assertEquals("dXBkYXRl", decoded.getUpdateHashEncrypted());
+        assertRoundTrip(encoded, Face.class);
+    }
+
+    @Test
+    public void encodesTicketGrantMessageWithCanonicalFace() throws IOException {
+        TicketGrantMessage ticket = new TicketGrantMessage("ticket-1", face(), new byte[]{1, 2, 3}, "cam",
+                "rs.example");
+        byte[] encoded = DcafCborCodec.encode(ticket, integerKeys);
+        byte[] encodedFace = DcafCborCodec.encodeFace(ticket.getFace(), integerKeys);
+        assertArrayEquals(DcafCborCodec.encodeTicketGrantMessage(ticket, encodedFace, integerKeys), encoded);
+        assertEquals(cborMapper.readTree(jacksonWriter.writeValueAsBytes(ticket)), cborMapper.readTree(encoded));
+
+        TicketGrantMessage decoded = DcafCborCodec.decode(encoded, TicketGrantMessage.class);
+        assertEquals("ticket-1", decoded.getId());
+        assertArrayEquals(new byte[]{1, 2, 3}, decoded.getVerifier().getVerifier());
+        assertEquals("cam", decoded.getCamIdentifier());
+        assertEquals("rs.example", decoded.getServerHost());
+        assertRoundTrip(encoded, TicketGrantMessage.class);
+    }
+
+    @Test
+    public void detectsIntegerKeys() {
+        byte[] encoded = DcafCborCodec.encode(new AccessRequest(SAM, sai(), TIMESTAMP, null, null), integerKeys);
+        assertEquals(integerKeys, DcafCborCodec.hasIntegerKeys(encoded));
+    }
+
+    @Test
+    public void rejectsDeeplyNestedInput() {
+        // {"x": [[[...]]], 1: 0} with more nesting than the stack holds
+        int depth = 100000;
+        byte[] payload = new byte[depth + 6];
+        payload[0] = (byte) 0xa2;
+        payload[1] = 0x61;
+        payload[2] = 'x';
+        Arrays.fill(payload, 3, 3 + depth, (byte) 0x81);
+        payload[depth + 3] = 0x00;
+        payload[depth + 4] = 0x01;
+        payload[depth + 5] = 0x00;
+
+        assertFalse(DcafCborCodec.hasIntegerKeys(payload));
+        assertNull(DcafCborCodec.decode(payload, AccessRequest.class));
+        assertTrue(DcafCborCodec.hasIntegerKeys(new byte[]{(byte) 0xa2, 0x61, 'x', (byte) 0x81, 0x00, 0x01, 0x00}));
+    }
+
+    @Test
+    public void rejectsLengthsBeyondTheInput() {
+        // {"1": array of 2^31 - 1 authorizations}
+        byte[] hugeSai = {(byte) 0xa1, 0x61, '1', (byte) 0x9a, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff};
+        assertNull(DcafCborCodec.decode(hugeSai, AccessRequest.class));
+        assertNull(DcafCborCodec.decode(hugeSai, Face.class));
+        assertFalse(Utils.deserializeCbor(hugeSai, AccessRequest.class).isPresent());
+        // a map of 2^31 - 1 entries
+        assertNull(DcafCborCodec.decode(new byte[]{(byte) 0xba, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff},
+                TicketGrantMessage.class));
+        // {"x": text of 2^31 - 1 bytes, 1: 0}
+        assertFalse(DcafCborCodec.hasIntegerKeys(new byte[]{(byte) 0xa2, 0x61, 'x', 0x7a, 0x7f, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, 0x01, 0x00}));
+        // {"x": array of 2^31 - 1 items, 1: 0}
+        assertFalse(DcafCborCodec.hasIntegerKeys(new byte[]{(byte) 0xa2, 0x61, 'x', (byte) 0x9a, 0x7f, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, 0x01, 0x00}));
+    }
+
+    /**
+     * Decodes the encoding with the codec and with Jackson and checks that both messages encode to the same bytes.
+     */
+    private <T> void assertRoundTrip(byte[] encoded, Class<T> valueType) throws IOException {
+        T decoded = DcafCborCodec.decode(encoded, valueType);
+        assertArrayEquals(encoded, DcafCborCodec.encode(decoded, integerKeys));
+        T decodedByJackson = cborMapper.readValue(encoded, valueType);
+        assertArrayEquals(encoded, DcafCborCodec.encode(decodedByJackson, integerKeys));
+    }
+
+    private static List<Authorization> sai() {
+        List<Authorization> sai = new ArrayList<>();
+        sai.add(new Authorization("coaps://rs.example/temp", 5));
+        sai.add(new Authorization("coaps://rs.example/light", 1));
+        return sai;
+    }
+
+    private static Face face() {
+        return new Face(sai(), TIMESTAMP, 3600, MacMethod.HMAC_SHA_256.getEncoding(), "dXBkYXRl");
+    }
+}
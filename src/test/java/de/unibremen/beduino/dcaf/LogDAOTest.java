@@ -0,0 +1,176 @@
+package de.unibremen.beduino.dcaf;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Damages the files of a {@link LogDAO} the way a crash or a bad disk would and reopens it.
+ *
+ * @author Norman Lipkow
+ */
+public class LogDAOTest {
+    private static final int FRAME_HEADER_LENGTH = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private Path segment;
+    private Path snapshot;
+    private Path compactingSegment;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+        segment = directory.resolve("dao.log");
+        snapshot = directory.resolve("dao.snapshot");
+        compactingSegment = directory.resolve("dao.log.compacting");
+    }
+
+    @Test
+    public void reopensWithAllRecords() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2", "cam3");
+        dao.deleteClientAuthorizationManager("cam2");
+        dao.sync(true);
+
+        assertEquals(Arrays.asList("cam1", "cam3"), camIds(new LogDAO(directory)));
+    }
+
+    @Test
+    public void failsOnDamagedRecordBeforeTheEnd() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2", "cam3");
+        flipByte(segment, recordOffsets(segment).get(1) + FRAME_HEADER_LENGTH + 2);
+
+        try {
+            new LogDAO(directory);
+            fail("Damaged record was not reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Damaged record at offset"));
+        }
+    }
+
+    @Test
+    public void discardsDamagedLastRecord() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2", "cam3");
+        flipByte(segment, recordOffsets(segment).get(2) + FRAME_HEADER_LENGTH + 2);
+
+        assertEquals(Arrays.asList("cam1", "cam2"), camIds(new LogDAO(directory)));
+    }
+
+    @Test
+    public void discardsIncompleteLastRecord() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2", "cam3");
+        long lastRecord = recordOffsets(segment).get(2);
+        truncate(segment, lastRecord + FRAME_HEADER_LENGTH + 3);
+
+        LogDAO reopened = new LogDAO(directory);
+        assertEquals(Arrays.asList("cam1", "cam2"), camIds(reopened));
+        // the incomplete record was cut off, so records appended after it can be read
+        assertEquals(lastRecord, Files.size(segment));
+        save(reopened, "cam4");
+        assertEquals(Arrays.asList("cam1", "cam2", "cam4"), camIds(new LogDAO(directory)));
+    }
+
+    @Test
+    public void failsOnIncompleteRecordInSnapshot() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2");
+        dao.compact();
+        truncate(snapshot, Files.size(snapshot) - 1);
+
+        try {
+            new LogDAO(directory);
+            fail("Incomplete snapshot was not reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Incomplete or damaged record"));
+        }
+    }
+
+    @Test
+    public void finishesCompactionInterruptedBeforeTheSnapshotWasReplaced() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2");
+        dao.compact();
+        save(dao, "cam3");
+        dao.deleteClientAuthorizationManager("cam1");
+        dao.sync(true);
+        // the segment was moved aside and the new snapshot was only partially written
+        Files.move(segment, compactingSegment);
+        Files.write(directory.resolve("dao.snapshot.tmp"), new byte[]{0, 0, 1});
+
+        LogDAO reopened = new LogDAO(directory);
+        assertEquals(Arrays.asList("cam2", "cam3"), camIds(reopened));
+        assertTrue(Files.notExists(compactingSegment));
+        assertEquals(Arrays.asList("cam2", "cam3"), camIds(new LogDAO(directory)));
+    }
+
+    @Test
+    public void finishesCompactionInterruptedBeforeTheSegmentWasDeleted() throws IOException {
+        LogDAO dao = new LogDAO(directory);
+        save(dao, "cam1", "cam2", "cam3");
+        dao.deleteClientAuthorizationManager("cam1");
+        dao.sync(true);
+        byte[] compactedRecords = Files.readAllBytes(segment);
+        dao.compact();
+        // the new snapshot is in place, but the folded segment is still there
+        Files.write(compactingSegment, compactedRecords);
+
+        LogDAO reopened = new LogDAO(directory);
+        assertEquals(Arrays.asList("cam2", "cam3"), camIds(reopened));
+        assertTrue(Files.notExists(compactingSegment));
+    }
+
+    private static void save(LogDAO dao, String... camIds) throws IOException {
+        for (String camId : camIds) {
+            assertTrue(dao.saveClientAuthorizationManager(new CamInfo(camId, "CAM " + camId)));
+        }
+        dao.sync(true);
+    }
+
+    private static List<String> camIds(LogDAO dao) {
+        return dao.getClientAuthorizationManagers().stream()
+                .map(CamInfo::getId)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static List<Long> recordOffsets(Path file) throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(file));
+        List<Long> offsets = new ArrayList<>();
+        while (records.hasRemaining()) {
+            offsets.add((long) records.position());
+            int length = records.getInt();
+            records.position(records.position() + FRAME_HEADER_LENGTH - 4 + length);
+        }
+        return offsets;
+    }
+
+    private static void flipByte(Path file, long offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) offset] ^= 0x01;
+        Files.write(file, bytes);
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        Files.write(file, Arrays.copyOf(Files.readAllBytes(file), (int) length));
+    }
+}
@@ -0,0 +1,148 @@
+package de.unibremen.beduino.dcaf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Sends revocations to a local CoAP server which stands in for the resource servers.
+ *
+ * @author Norman Lipkow
+ */
+public class RevocationDispatcherTest {
+    private static final long BATCH_INTERVAL = 200; // in milliseconds
+    private static final long VERIFY_TIMEOUT = 15000; // in milliseconds
+
+    private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+    // batch sizes received per server host, in the order of the requests
+    private final Map<String, List<Integer>> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private CoapServer server;
+    private Endpoint clientEndpoint;
+    private RevocationDispatcher dispatcher;
+    private DAO dao;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new CoapServer();
+        server.addEndpoint(new CoapEndpoint.CoapEndpointBuilder()
+                .setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).build());
+        server.add(new CoapResource("revoke") {
+            @Override
+            public void handlePOST(CoapExchange exchange) {
+                requests.incrementAndGet();
+                if (failures.getAndDecrement() > 0) {
+                    exchange.respond(CoAP.ResponseCode.SERVICE_UNAVAILABLE);
+                    return;
+                }
+                try {
+                    int size = cborMapper.readTree(exchange.getRequestPayload()).size();
+                    batches.computeIfAbsent(exchange.getQueryParameter("h"),
+                            host -> Collections.synchronizedList(new ArrayList<>())).add(size);
+                    exchange.respond(CoAP.ResponseCode.CHANGED);
+                } catch (IOException e) {
+                    exchange.respond(CoAP.ResponseCode.BAD_REQUEST);
+                }
+            }
+        });
+        server.start();
+        port = server.getEndpoints().get(0).getAddress().getPort();
+
+        clientEndpoint = new CoapEndpoint.CoapEndpointBuilder()
+                .setInetSocketAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).build();
+        clientEndpoint.start();
+        dao = mock(DAO.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+        clientEndpoint.destroy();
+        server.destroy();
+    }
+
+    @Test
+    public void sendsPendingRevocationsInBatchesPerServer() {
+        dispatcher = createDispatcher("coap://127.0.0.1:" + port + "/revoke?h=%s");
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(revocation("hostA"));
+        }
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(revocation("hostB"));
+        }
+
+        verify(dao, timeout(VERIFY_TIMEOUT).times(110)).saveRevocationTicket(argThat(r -> r.getDeliveryTime() > 0));
+        assertEquals(Collections.singletonList(10), batches.get("hostB"));
+        assertEquals(2, batches.get("hostA").size());
+        assertEquals(100, batches.get("hostA").stream().mapToInt(Integer::intValue).sum());
+        assertEquals(3, requests.get());
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    @Test
+    public void retriesBatchUntilServerAcknowledges() {
+        failures.set(2);
+        dispatcher = createDispatcher("coap://127.0.0.1:" + port + "/revoke?h=%s");
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch(revocation("hostA"));
+        }
+
+        verify(dao, timeout(VERIFY_TIMEOUT).times(5)).saveRevocationTicket(argThat(r -> r.getDeliveryTime() > 0));
+        assertEquals(3, requests.get());
+        assertEquals(Collections.singletonList(5), batches.get("hostA"));
+    }
+
+    @Test
+    public void keepsSendingAfterInvalidServerUri() throws InterruptedException {
+        dispatcher = createDispatcher("coap://%s/revoke?h=host");
+        dispatcher.dispatch(revocation("invalid host"));
+        Thread.sleep(3 * BATCH_INTERVAL);
+
+        dispatcher.dispatch(revocation("127.0.0.1:" + port));
+
+        verify(dao, timeout(VERIFY_TIMEOUT).times(1)).saveRevocationTicket(argThat(r -> r.getDeliveryTime() > 0));
+        assertEquals(Collections.singletonList(1), batches.get("host"));
+        assertEquals(0, dispatcher.getPendingCount());
+    }
+
+    private RevocationDispatcher createDispatcher(String uriTemplate) {
+        return new RevocationDispatcher(uriTemplate, BATCH_INTERVAL, clientEndpoint, dao::saveRevocationTicket);
+    }
+
+    private static RevocationTicket revocation(String host) {
+        List<Authorization> sai = new ArrayList<>();
+        sai.add(new Authorization("coaps://" + host + "/r", 1));
+        Face face = new Face(sai, System.currentTimeMillis() / 1000, 60, MacMethod.HMAC_SHA_256.getEncoding(), null);
+        TicketGrantMessage ticket = new TicketGrantMessage(face, new Verifier(new byte[]{1, 2}));
+        ticket.setServerHost(host);
+        return new RevocationTicket(ticket);
+    }
+}